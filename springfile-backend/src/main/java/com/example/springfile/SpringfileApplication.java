@@ -3,9 +3,11 @@ package com.example.springfile;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableAsync // Enable asynchronous method execution
+@EnableScheduling // Enable periodic maintenance jobs
 public class SpringfileApplication {
 
 	public static void main(String[] args) {
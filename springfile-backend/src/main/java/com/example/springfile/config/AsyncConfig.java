@@ -0,0 +1,87 @@
+package com.example.springfile.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executors for background work.
+ * Long-running batch jobs (preprocessing, embedding) run on a dedicated, bounded pool
+ * so they never occupy Tomcat request threads. Pool and queue sizes are configurable;
+ * once the queue is full new tasks are rejected and the API answers 503/429 instead
+ * of queueing without limit.
+ *
+ * Queue depth and active thread metrics are published by Spring Boot's executor metrics
+ * (executor.queued, executor.active, executor.pool.size) tagged with the bean name.
+ */
+@Configuration
+public class AsyncConfig {
+
+    public static final String BACKGROUND_TASK_EXECUTOR = "backgroundTaskExecutor";
+    public static final String UPLOAD_EXECUTOR = "uploadExecutor";
+
+    @Value("${async.background.core-pool-size:2}")
+    private int corePoolSize;
+
+    @Value("${async.background.max-pool-size:4}")
+    private int maxPoolSize;
+
+    @Value("${async.background.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${async.background.await-termination-seconds:60}")
+    private int awaitTerminationSeconds;
+
+    @Value("${async.upload.pool-size:4}")
+    private int uploadPoolSize;
+
+    @Value("${async.upload.queue-capacity:100}")
+    private int uploadQueueCapacity;
+
+    @Bean(name = BACKGROUND_TASK_EXECUTOR)
+    public ThreadPoolTaskExecutor backgroundTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("background-task-");
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        // Reject instead of running on the caller: the caller is a request thread
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        // Let in-flight batches drain on shutdown instead of being interrupted
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(awaitTerminationSeconds);
+        return executor;
+    }
+
+    /**
+     * Stores the files of a multi-file upload in parallel (copying and hashing).
+     * The request thread waits for the results anyway, so when the queue is full it stores
+     * the file itself, which also throttles the request.
+     */
+    @Bean(name = UPLOAD_EXECUTOR)
+    public ThreadPoolTaskExecutor uploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("upload-");
+        executor.setCorePoolSize(uploadPoolSize);
+        executor.setMaxPoolSize(uploadPoolSize);
+        executor.setQueueCapacity(uploadQueueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * Defining any Executor bean switches off Boot's default application executor,
+     * which Spring MVC uses for async request processing (e.g. streamed downloads).
+     * Re-declare it from Boot's builder so spring.task.execution.* still applies.
+     */
+    @Lazy
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public ThreadPoolTaskExecutor applicationTaskExecutor(ThreadPoolTaskExecutorBuilder builder) {
+        return builder.build();
+    }
+}
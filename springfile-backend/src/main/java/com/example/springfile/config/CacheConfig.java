@@ -0,0 +1,17 @@
+package com.example.springfile.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * In-process caches (Caffeine). Cache names, size and expiry are configured with
+ * spring.cache.cache-names and spring.cache.caffeine.spec; with recordStats in the spec,
+ * hit/miss/eviction metrics are published as cache.gets, cache.puts and cache.evictions
+ * (tagged with the cache name) under /actuator/metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String SEARCH_RESULTS_CACHE = "searchResults";
+}
@@ -0,0 +1,43 @@
+package com.example.springfile.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Connection settings of the WebClient used to call the FastAPI sidecar (fastapi.client.*).
+ * The pool is bounded and every endpoint has its own response timeout, so a slow inference
+ * call holds one connection for a bounded time instead of piling up and starving other calls.
+ */
+@Data // Generates getters, setters, toString, equals, hashCode
+@ConfigurationProperties(prefix = "fastapi.client")
+public class FastApiClientProperties {
+
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    // Largest response body buffered in memory (search results, processed DOCX files)
+    private DataSize maxInMemorySize = DataSize.ofMegabytes(16);
+    private final Pool pool = new Pool();
+    private final Timeout timeout = new Timeout();
+
+    @Data // Generates getters, setters, toString, equals, hashCode
+    public static class Pool {
+        private int maxConnections = 50;
+        // Requests waiting for a connection, and how long they may wait, before failing fast
+        private int pendingAcquireMaxCount = 500;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+        // Keep-alive: idle connections are reused, and closed after max-idle-time
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(10);
+        private Duration evictionInterval = Duration.ofSeconds(30);
+    }
+
+    // Longest wait for a response, per FastAPI endpoint
+    @Data // Generates getters, setters, toString, equals, hashCode
+    public static class Timeout {
+        private Duration preprocess = Duration.ofSeconds(60);
+        private Duration embedding = Duration.ofMinutes(2);
+        private Duration search = Duration.ofSeconds(15);
+    }
+}
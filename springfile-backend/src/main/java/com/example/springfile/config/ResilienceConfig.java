@@ -0,0 +1,57 @@
+package com.example.springfile.config;
+
+import io.github.resilience4j.common.circuitbreaker.configuration.CircuitBreakerConfigCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Circuit breakers and bulkheads around the FastAPI endpoints, one of each per endpoint, so
+ * search, embedding and preprocessing fail independently and cannot use up each other's
+ * connections. Thresholds and concurrency limits are configured under resilience4j.circuitbreaker.*
+ * and resilience4j.bulkhead.*; state and call metrics are published as resilience4j.circuitbreaker.*
+ * and resilience4j.bulkhead.* under /actuator/metrics, and breaker state under /actuator/health.
+ */
+@Configuration
+public class ResilienceConfig {
+
+    // Circuit breaker and bulkhead instance names
+    public static final String SEARCH = "search";
+    public static final String EMBEDDING = "embedding";
+    public static final String PREPROCESS = "preprocess";
+
+    @Bean
+    public CircuitBreakerConfigCustomizer searchCircuitBreakerCustomizer() {
+        return fastApiFailuresOnly(SEARCH);
+    }
+
+    @Bean
+    public CircuitBreakerConfigCustomizer embeddingCircuitBreakerCustomizer() {
+        return fastApiFailuresOnly(EMBEDDING);
+    }
+
+    @Bean
+    public CircuitBreakerConfigCustomizer preprocessCircuitBreakerCustomizer() {
+        return fastApiFailuresOnly(PREPROCESS);
+    }
+
+    private static CircuitBreakerConfigCustomizer fastApiFailuresOnly(String instanceName) {
+        return CircuitBreakerConfigCustomizer.of(instanceName,
+                builder -> builder.recordException(ResilienceConfig::isFastApiFailure));
+    }
+
+    /**
+     * Whether an error says FastAPI is unhealthy. A 4xx answer is about the request (unsupported
+     * file, bad query) and does not count; timeouts, connection errors and 5xx answers do.
+     */
+    static boolean isFastApiFailure(Throwable e) {
+        if (e instanceof WebClientResponseException responseException) {
+            return responseException.getStatusCode().is5xxServerError();
+        }
+        if (e instanceof ResponseStatusException statusException) {
+            return statusException.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.springfile.config;
+
+import com.example.springfile.model.Category;
+import com.example.springfile.model.File;
+import com.example.springfile.model.Subcategory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Schema changes that spring.jpa.hibernate.ddl-auto=update cannot apply to an existing database.
+ * Runs after the JPA schema update (all singletons are initialized) and before the web server
+ * accepts requests. Every step checks the current schema first, so it is safe on every startup.
+ */
+@Component
+public class SchemaMigrations implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public SchemaMigrations(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        dropStorageIdentifierUniqueConstraint();
+        alignSequenceWithTable("category_seq", "category", Category.ID_ALLOCATION_SIZE);
+        alignSequenceWithTable("subcategory_seq", "subcategory", Subcategory.ID_ALLOCATION_SIZE);
+        alignSequenceWithTable("file_seq", "file", File.ID_ALLOCATION_SIZE);
+    }
+
+    // Files with identical content share one content-addressed blob, so storage_identifier is no longer unique
+    private void dropStorageIdentifierUniqueConstraint() {
+        List<String> constraintNames = jdbcTemplate.queryForList(
+                "select tc.constraint_name from information_schema.table_constraints tc" +
+                " join information_schema.key_column_usage kcu" +
+                " on kcu.constraint_schema = tc.constraint_schema and kcu.constraint_name = tc.constraint_name" +
+                " where tc.table_name = 'FILE' and tc.constraint_type = 'UNIQUE' and kcu.column_name = 'STORAGE_IDENTIFIER'",
+                String.class);
+        for (String constraintName : constraintNames) {
+            jdbcTemplate.execute("alter table file drop constraint \"" + constraintName + "\"");
+            logger.info("Dropped unique constraint {} on file.storage_identifier", constraintName);
+        }
+    }
+
+    // IDs used to come from identity columns; the pooled sequence (created by Hibernate, starting at 1)
+    // must hand out blocks above the existing rows. Hibernate uses (value - allocationSize, value].
+    private void alignSequenceWithTable(String sequenceName, String tableName, int allocationSize) {
+        Long nextValue = jdbcTemplate.queryForObject(
+                "select base_value from information_schema.sequences where sequence_name = ?",
+                Long.class, sequenceName.toUpperCase(Locale.ROOT));
+        long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + tableName, Long.class);
+        if (nextValue != null && nextValue - allocationSize < maxId) {
+            long restartValue = maxId + allocationSize;
+            jdbcTemplate.execute("alter sequence " + sequenceName + " restart with " + restartValue);
+            logger.info("Restarted sequence {} at {} (highest {}.id is {})", sequenceName, restartValue, tableName, maxId);
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package com.example.springfile.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientRequest;
+import reactor.netty.resources.ConnectionProvider;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 // Removed ViewControllerRegistry, EnableWebMvc, ResourceHandlerRegistry imports
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.time.Duration;
+import java.util.function.Consumer;
+
 @Configuration
+@EnableConfigurationProperties(FastApiClientProperties.class)
 // Removed @EnableWebMvc
 public class WebConfig implements WebMvcConfigurer {
 
@@ -16,13 +27,49 @@ public class WebConfig implements WebMvcConfigurer {
     @Value("${fastapi.service.url:http://localhost:8001}") // Default to localhost:8001
     private String fastapiServiceUrl;
 
+    /**
+     * Bounded, keep-alive connection pool for the FastAPI sidecar. Pool metrics (active, idle and
+     * pending connections) are published as reactor.netty.connection.provider.* under /actuator/metrics.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider fastapiConnectionProvider(FastApiClientProperties properties) {
+        FastApiClientProperties.Pool pool = properties.getPool();
+        return ConnectionProvider.builder("fastapi")
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .evictInBackground(pool.getEvictionInterval())
+                .metrics(true)
+                .build();
+    }
+
     @Bean
-    public WebClient fastapiWebClient(WebClient.Builder builder) {
+    public WebClient fastapiWebClient(WebClient.Builder builder,
+                                      ConnectionProvider fastapiConnectionProvider,
+                                      FastApiClientProperties properties) {
+        HttpClient httpClient = HttpClient.create(fastapiConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // Upper bound for any call; each endpoint sets its own (shorter) timeout per request
+                .responseTimeout(properties.getTimeout().getEmbedding());
         return builder
                 .baseUrl(fastapiServiceUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) properties.getMaxInMemorySize().toBytes()))
                 .build();
     }
 
+    /**
+     * Sets the response timeout of a single FastAPI request, e.g.
+     * {@code webClient.post().httpRequest(WebConfig.responseTimeout(timeout))}.
+     * When it expires the connection is closed and returned to the pool.
+     */
+    public static Consumer<ClientHttpRequest> responseTimeout(Duration timeout) {
+        return request -> request.<HttpClientRequest>getNativeRequest().responseTimeout(timeout);
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**") // Apply CORS to all paths under /api
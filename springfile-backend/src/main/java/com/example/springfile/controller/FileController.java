@@ -1,29 +1,51 @@
 package com.example.springfile.controller;
 
+import com.example.springfile.dto.CursorPageDto;
 import com.example.springfile.dto.FileDto;
+import com.example.springfile.dto.FileFilterDto;
 import com.example.springfile.dto.SearchQueryDto; // Import DTO for search query
-import com.fasterxml.jackson.databind.JsonNode; // To handle generic JSON response from FastAPI
+import com.example.springfile.dto.SearchResponseDto;
 import com.example.springfile.model.File;
 import com.example.springfile.service.AsyncTaskManager; // Import AsyncTaskManager
 import com.example.springfile.service.FileService;
+import com.example.springfile.service.TaskEventBroadcaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.UUID; // Import UUID (though task ID generation moved to service)
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.data.web.PagedModel;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Map;
+import reactor.core.publisher.Mono;
 import java.util.stream.Collectors;
 
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.ThreadLocalRandom;
@@ -35,13 +57,34 @@ public class FileController {
 
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
 
+    private static final int MAX_CURSOR_PAGE_SIZE = 500;
+
+    // Tomcat sendfile request attributes (see org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     private final FileService fileService;
     private final AsyncTaskManager asyncTaskManager; // Inject AsyncTaskManager
+    private final TaskEventBroadcaster taskEventBroadcaster;
+
+    // How long browsers may reuse a downloaded/viewed file before revalidating with its ETag
+    @Value("${file.download.cache-max-age:1h}")
+    private Duration fileCacheMaxAge;
+
+    // Zero-copy serving of stored files; below the threshold a plain copy is cheaper
+    @Value("${file.download.sendfile:true}")
+    private boolean sendfileEnabled;
+    @Value("${file.download.sendfile-min-size:48KB}")
+    private DataSize sendfileMinSize;
 
     @Autowired
-    public FileController(FileService fileService, AsyncTaskManager asyncTaskManager) { // Add to constructor
+    public FileController(FileService fileService, AsyncTaskManager asyncTaskManager, // Add to constructor
+                          TaskEventBroadcaster taskEventBroadcaster) {
         this.fileService = fileService;
         this.asyncTaskManager = asyncTaskManager; // Initialize
+        this.taskEventBroadcaster = taskEventBroadcaster;
     }
 
     // --- Task Status Endpoint ---
@@ -63,8 +106,29 @@ public class FileController {
     }
 
 
+    /**
+     * Streams the progress of a task as Server-Sent Events ("status" and per-file "item" events),
+     * so clients do not have to poll /process/status/{taskId}. See TaskEventBroadcaster.
+     */
+    @GetMapping(value = "/process/events/{taskId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTaskEvents(@PathVariable String taskId) {
+        if (asyncTaskManager.getTaskStatus(taskId) == null) {
+            logger.warn("Event stream requested for unknown task ID: {}", taskId);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Task not found or already cleaned up.");
+        }
+        // The stream starts from the status read after it is registered, not the one read above
+        return taskEventBroadcaster.subscribe(taskId, () -> asyncTaskManager.getTaskStatus(taskId));
+    }
+
+
     // --- Existing Endpoints ---
 
+    /**
+     * Uploads several files into a category/subcategory.
+     * A file that cannot be read is reported on its own. The files that could be read are saved
+     * together in one transaction: if saving fails, none of them is saved and each is reported
+     * with the error (the response message says so).
+     */
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFiles(@RequestParam("files") MultipartFile[] files, // Changed to accept array
                                           @RequestParam("category_id") Long categoryId,
@@ -76,41 +140,51 @@ public class FileController {
         List<Map<String, Object>> results = new java.util.ArrayList<>();
         List<String> errors = new java.util.ArrayList<>();
 
+        List<MultipartFile> nonEmptyFiles = new java.util.ArrayList<>();
         for (MultipartFile file : files) {
             if (file.isEmpty()) {
                 logger.warn("Skipping empty file during multi-upload.");
                 errors.add("An empty file was provided and skipped.");
                 continue; // Skip empty files
             }
+            logger.info("Processing file upload: name={}, size={}, categoryId={}, subcategoryId={}",
+                    file.getOriginalFilename(), file.getSize(), categoryId, subcategoryId);
+            nonEmptyFiles.add(file);
+        }
 
-            try {
-                logger.info("Processing file upload: name={}, size={}, categoryId={}, subcategoryId={}",
-                        file.getOriginalFilename(), file.getSize(), categoryId, subcategoryId);
-
-                File savedFile = fileService.uploadFile(file, categoryId, subcategoryId);
-
-                logger.info("File uploaded successfully: id={}, storageIdentifier={}", savedFile.getId(), savedFile.getStorageIdentifier());
-
-                // Collect basic info about the saved file
-                Map<String, Object> fileResult = Map.of(
-                        "fileId", savedFile.getId(),
-                        "fileName", savedFile.getFileName(),
-                        "storageIdentifier", savedFile.getStorageIdentifier(),
-                        "status", "uploaded"
-                );
-                results.add(fileResult);
-
-            } catch (RuntimeException e) {
-                logger.error("Error uploading file '{}': {}", file.getOriginalFilename(), e.getMessage(), e);
-                errors.add("Could not upload file '" + file.getOriginalFilename() + "': " + e.getMessage());
-            } catch (Exception e) {
-                logger.error("Unexpected error uploading file '{}': {}", file.getOriginalFilename(), e.getMessage(), e);
-                errors.add("Unexpected error uploading file '" + file.getOriginalFilename() + "'.");
+        // Files are stored in parallel and saved together; outcomes come back in upload order
+        List<FileService.FileUploadOutcome> outcomes;
+        try {
+            outcomes = nonEmptyFiles.isEmpty()
+                    ? List.of()
+                    : fileService.uploadFiles(nonEmptyFiles, categoryId, subcategoryId);
+        } catch (Exception e) {
+            logger.error("Error uploading files {}: {}", nonEmptyFiles.stream().map(FileService::uploadFileName).toList(), e.getMessage(), e);
+            // Same names as the service reports, so clients can match outcomes on either path
+            outcomes = nonEmptyFiles.stream()
+                    .map(file -> new FileService.FileUploadOutcome(FileService.uploadFileName(file), null, e.getMessage()))
+                    .toList();
+        }
+        for (FileService.FileUploadOutcome outcome : outcomes) {
+            File savedFile = outcome.file();
+            if (savedFile == null) {
+                errors.add("Could not upload file '" + outcome.fileName() + "': " + outcome.error());
+                continue;
             }
+            logger.info("File uploaded successfully: id={}, storageIdentifier={}", savedFile.getId(), savedFile.getStorageIdentifier());
+
+            // Collect basic info about the saved file
+            Map<String, Object> fileResult = Map.of(
+                    "fileId", savedFile.getId(),
+                    "fileName", savedFile.getFileName(),
+                    "storageIdentifier", savedFile.getStorageIdentifier(),
+                    "status", "uploaded"
+            );
+            results.add(fileResult);
         }
 
         Map<String, Object> responseBody = new java.util.HashMap<>();
-        responseBody.put("message", "File upload process completed.");
+        responseBody.put("message", uploadMessage(results, outcomes));
         responseBody.put("uploadedFiles", results);
         if (!errors.isEmpty()) {
             responseBody.put("errors", errors);
@@ -126,6 +200,64 @@ public class FileController {
     }
 
 
+    // Says when a whole batch failed together, so clients do not retry the files one by one
+    private static String uploadMessage(List<Map<String, Object>> results, List<FileService.FileUploadOutcome> outcomes) {
+        if (!results.isEmpty() || outcomes.isEmpty()) {
+            return "File upload process completed.";
+        }
+        boolean failedTogether = outcomes.size() > 1
+                && outcomes.stream().map(FileService.FileUploadOutcome::error).distinct().count() == 1;
+        return failedTogether
+                ? "No file was uploaded. The files are saved together, so this error applies to all of them."
+                : "No file was uploaded.";
+    }
+
+    /**
+     * Uploads one file sent as the raw request body (not multipart), e.g.
+     * {@code curl -X POST --data-binary @big.pdf -H "Content-Type: application/pdf" ".../upload/stream?file_name=big.pdf&category_id=1"}.
+     * The body is streamed straight into storage, avoiding the multipart resolver's temp files.
+     * Responds with the same body shape as /upload.
+     */
+    @PostMapping(value = "/upload/stream", consumes = "!" + MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+    public ResponseEntity<?> uploadFileStream(@RequestParam("file_name") String fileName,
+                                              @RequestParam("category_id") Long categoryId,
+                                              @RequestParam(value = "subcategory_id", required = false) Long subcategoryId,
+                                              HttpServletRequest request) {
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith("multipart/")) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Send the file content as the raw request body, or use /upload for multipart.");
+        }
+        if (!StringUtils.hasText(fileName)) {
+            return ResponseEntity.badRequest().body(Map.of("message", "file_name cannot be empty"));
+        }
+
+        Map<String, Object> responseBody = new java.util.HashMap<>();
+        responseBody.put("message", "File upload process completed.");
+        try {
+            logger.info("Processing streamed file upload: name={}, declaredLength={}, categoryId={}, subcategoryId={}",
+                    fileName, request.getContentLengthLong(), categoryId, subcategoryId);
+
+            File savedFile = fileService.uploadFileStream(request.getInputStream(), fileName, contentType, categoryId, subcategoryId);
+
+            logger.info("File uploaded successfully: id={}, storageIdentifier={}", savedFile.getId(), savedFile.getStorageIdentifier());
+            responseBody.put("uploadedFiles", List.of(Map.of(
+                    "fileId", savedFile.getId(),
+                    "fileName", savedFile.getFileName(),
+                    "storageIdentifier", savedFile.getStorageIdentifier(),
+                    "status", "uploaded"
+            )));
+            return ResponseEntity.status(HttpStatus.CREATED).body(responseBody);
+
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error uploading streamed file '{}': {}", fileName, e.getMessage(), e);
+            responseBody.put("uploadedFiles", List.of());
+            responseBody.put("errors", List.of("Could not upload file '" + fileName + "': " + e.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(responseBody);
+        }
+    }
+
     @GetMapping
     public ResponseEntity<List<FileDto>> getAllFiles() { // Changed return type
         try {
@@ -140,6 +272,70 @@ public class FileController {
         }
     }
 
+    /**
+     * Paginated, sorted and filtered file listing.
+     * Example: GET /api/files/page?page=0&size=50&sort=uploadTimestamp,desc&category_id=1&type=application/pdf
+     *
+     * @return A page of FileDto objects plus page metadata.
+     */
+    @GetMapping("/page")
+    public PagedModel<FileDto> getFilesPage(@RequestParam(value = "category_id", required = false) Long categoryId,
+                                            @RequestParam(value = "subcategory_id", required = false) Long subcategoryId,
+                                            @RequestParam(value = "type", required = false) String fileType,
+                                            @RequestParam(value = "embedding", required = false) Boolean embedding,
+                                            @RequestParam(value = "uploaded_from", required = false)
+                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedFrom,
+                                            @RequestParam(value = "uploaded_to", required = false)
+                                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedTo,
+                                            @PageableDefault(size = 50, sort = "uploadTimestamp", direction = Sort.Direction.DESC) Pageable pageable) {
+        // Date range is inclusive on both days: [from 00:00, day after "to" 00:00)
+        FileFilterDto filter = new FileFilterDto(categoryId, subcategoryId, fileType, embedding,
+                uploadedFrom != null ? uploadedFrom.atStartOfDay() : null,
+                uploadedTo != null ? uploadedTo.plusDays(1).atStartOfDay() : null);
+        try {
+            return new PagedModel<>(fileService.getFiles(filter, pageable));
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error retrieving file page: {}", e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not retrieve files.", e);
+        }
+    }
+
+    /**
+     * Cursor-based (keyset) file listing for infinite scrolling, newest first.
+     * Pass the returned nextCursor/prevCursor back as "cursor" to move through the list.
+     * Accepts the same filters as /page.
+     *
+     * @return A slice of FileDto objects with opaque next/prev cursors.
+     */
+    @GetMapping("/cursor")
+    public CursorPageDto<FileDto> getFilesByCursor(@RequestParam(value = "cursor", required = false) String cursor,
+                                                   @RequestParam(value = "size", defaultValue = "50") int size,
+                                                   @RequestParam(value = "category_id", required = false) Long categoryId,
+                                                   @RequestParam(value = "subcategory_id", required = false) Long subcategoryId,
+                                                   @RequestParam(value = "type", required = false) String fileType,
+                                                   @RequestParam(value = "embedding", required = false) Boolean embedding,
+                                                   @RequestParam(value = "uploaded_from", required = false)
+                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedFrom,
+                                                   @RequestParam(value = "uploaded_to", required = false)
+                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedTo) {
+        if (size < 1 || size > MAX_CURSOR_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_CURSOR_PAGE_SIZE);
+        }
+        FileFilterDto filter = new FileFilterDto(categoryId, subcategoryId, fileType, embedding,
+                uploadedFrom != null ? uploadedFrom.atStartOfDay() : null,
+                uploadedTo != null ? uploadedTo.plusDays(1).atStartOfDay() : null);
+        try {
+            return fileService.getFilesByCursor(filter, cursor, size);
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error retrieving files by cursor: {}", e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not retrieve files.", e);
+        }
+    }
+
     @DeleteMapping("/delete") // Changed endpoint
     public ResponseEntity<?> deleteFiles(@RequestBody List<Long> fileIds) { // Changed method name
         if (fileIds == null || fileIds.isEmpty()) {
@@ -187,11 +383,14 @@ public class FileController {
     }
 
     @GetMapping("/download/{fileId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long fileId) {
+    public ResponseEntity<Resource> downloadFile(@PathVariable Long fileId, ServletWebRequest webRequest) {
         try {
             logger.info("Received request to download file with ID: {}", fileId);
             Map<String, Object> fileData = fileService.getFileForDownload(fileId);
-            Resource resource = (Resource) fileData.get("resource");
+            if (isNotModified(fileData, webRequest)) {
+                logger.debug("File ID {} not modified, answering 304.", fileId);
+                return null; // 304 with validators already written
+            }
             String originalFileName = (String) fileData.get("fileName");
             String contentType = (String) fileData.get("fileType");
 
@@ -206,10 +405,9 @@ public class FileController {
 
             logger.info("Prepared file '{}' (type: {}) for download.", originalFileName, contentType);
 
-            return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFileName) // Use RFC 5987 format for encoding
-                    .body(resource);
+            return storedFileResponse(fileData, MediaType.parseMediaType(contentType),
+                    "attachment; filename*=UTF-8''" + encodedFileName, // Use RFC 5987 format for encoding
+                    webRequest.getRequest());
 
         } catch (RuntimeException e) {
             // Handle file not found specifically
@@ -228,11 +426,14 @@ public class FileController {
     }
 
     @GetMapping("/view/{fileId}")
-    public ResponseEntity<Resource> viewFile(@PathVariable Long fileId) {
+    public ResponseEntity<Resource> viewFile(@PathVariable Long fileId, ServletWebRequest webRequest) {
         try {
             logger.info("Received request to view file with ID: {}", fileId);
             Map<String, Object> fileData = fileService.getFileForDownload(fileId); // Re-use existing service method
-            Resource resource = (Resource) fileData.get("resource");
+            if (isNotModified(fileData, webRequest)) {
+                logger.debug("File ID {} not modified, answering 304.", fileId);
+                return null; // 304 with validators already written
+            }
             String originalFileName = (String) fileData.get("fileName"); // Keep original name for context, though not strictly needed for inline
             String contentType = (String) fileData.get("fileType");
 
@@ -245,10 +446,9 @@ public class FileController {
             logger.info("Prepared file '{}' (type: {}) for inline viewing.", originalFileName, contentType);
 
             // Key difference: Content-Disposition is "inline"
-            return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + originalFileName + "\"") // Use simple filename format for inline
-                    .body(resource);
+            return storedFileResponse(fileData, MediaType.parseMediaType(contentType),
+                    "inline; filename=\"" + originalFileName + "\"", // Use simple filename format for inline
+                    webRequest.getRequest());
 
         } catch (RuntimeException e) {
             // Handle file not found specifically
@@ -267,8 +467,98 @@ public class FileController {
     }
 
 
+    /**
+     * Evaluates If-None-Match / If-Modified-Since against the stored object.
+     * On a match the 304 status and validators are written and no body needs to be produced.
+     */
+    private boolean isNotModified(Map<String, Object> fileData, ServletWebRequest webRequest) {
+        String etag = (String) fileData.get("etag");
+        Long lastModified = (Long) fileData.get("lastModified");
+        if (etag == null || lastModified == null) {
+            return false;
+        }
+        return webRequest.checkNotModified(etag, lastModified);
+    }
+
+    /**
+     * Builds the response for a stored file with validators, caching and range headers.
+     * Stored files are never rewritten in place, so a cached copy stays valid until the ETag changes.
+     *
+     * Large full-file and single-range GETs are handed to Tomcat's sendfile support, which
+     * transfers the bytes with FileChannel.transferTo after the handler returns, so the content
+     * never passes through heap buffers. Everything else (small files, multi-range requests,
+     * HEAD, containers without sendfile) returns the Resource body and lets Spring copy it,
+     * including 206/multipart/byteranges handling.
+     */
+    private ResponseEntity<Resource> storedFileResponse(Map<String, Object> fileData, MediaType contentType,
+                                                        String contentDisposition, HttpServletRequest request) {
+        Resource resource = (Resource) fileData.get("resource");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        headers.setCacheControl(CacheControl.maxAge(fileCacheMaxAge).cachePrivate());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String etag = (String) fileData.get("etag");
+        Long lastModified = (Long) fileData.get("lastModified");
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        if (lastModified != null) {
+            headers.setLastModified(lastModified);
+        }
+
+        if (sendfileEnabled && resource.isFile() && HttpMethod.GET.matches(request.getMethod())
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            try {
+                long length = resource.contentLength();
+                String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+                if (rangeHeader == null && length >= sendfileMinSize.toBytes()) {
+                    startSendfile(request, resource, 0, length);
+                    headers.setContentLength(length);
+                    return ResponseEntity.ok().headers(headers).build();
+                }
+                if (rangeHeader != null) {
+                    List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                    if (ranges.size() == 1) {
+                        long start = ranges.get(0).getRangeStart(length);
+                        long end = ranges.get(0).getRangeEnd(length); // Inclusive
+                        if (start < length && end - start + 1 >= sendfileMinSize.toBytes()) {
+                            startSendfile(request, resource, start, end + 1);
+                            headers.setContentLength(end - start + 1);
+                            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).build();
+                        }
+                    }
+                }
+            } catch (IllegalArgumentException | IOException e) {
+                // Unparseable/unsatisfiable range or unreadable file: let the regular path answer (e.g. 416)
+                logger.debug("Not using sendfile for {}: {}", resource.getDescription(), e.getMessage());
+            }
+        }
+        return ResponseEntity.ok().headers(headers).body(resource);
+    }
+
+    /**
+     * Asks Tomcat to send [start, end) of the file once the response is committed.
+     */
+    private void startSendfile(HttpServletRequest request, Resource resource, long start, long end) throws IOException {
+        request.setAttribute(SENDFILE_FILENAME_ATTR, resource.getFile().getAbsolutePath());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, end); // Exclusive
+    }
+
+    // Retry-After only makes sense when the task was refused for load (503/429), not for a bad request
+    private static HttpHeaders retryAfterIfOverloaded(ResponseStatusException e) {
+        HttpHeaders headers = new HttpHeaders();
+        if (e.getStatusCode().value() == HttpStatus.SERVICE_UNAVAILABLE.value()
+                || e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+            headers.set(HttpHeaders.RETRY_AFTER, "30");
+        }
+        return headers;
+    }
+
     @PostMapping("/download/batch") // Use POST since we send a body
-    public ResponseEntity<Resource> downloadFilesAsZip(@RequestBody List<Long> fileIds) {
+    public ResponseEntity<StreamingResponseBody> downloadFilesAsZip(@RequestBody List<Long> fileIds) {
         if (fileIds == null || fileIds.isEmpty()) {
             logger.warn("Received empty file ID list for batch download.");
             return ResponseEntity.badRequest().body(null); // Or build a specific error resource/message
@@ -276,27 +566,34 @@ public class FileController {
         logger.info("Received request to download files as ZIP with IDs: {}", fileIds);
 
         try {
-            // This service method will need to be created.
-            Resource zipResource = fileService.createZipArchiveForFiles(fileIds);
+            // Resolve metadata up front; the archive itself is streamed after this method returns
+            List<FileService.ZipEntrySource> entries = fileService.resolveZipEntries(fileIds);
+            if (entries.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "None of the requested files were found.");
+            }
 
             // Generate filename: springfile-zip-{yyyyMMdd}-{random}.zip
             String datePart = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
             int randomPart = ThreadLocalRandom.current().nextInt(1000, 10000); // 4-digit random number
             String zipFileName = String.format("springfile-zip-%s-%d.zip", datePart, randomPart);
 
-            logger.info("Prepared ZIP archive '{}' for download.", zipFileName);
+            logger.info("Streaming ZIP archive '{}' with {} entries.", zipFileName, entries.size());
 
             // Encode filename for header
             String encodedZipFileName = URLEncoder.encode(zipFileName, StandardCharsets.UTF_8.toString()).replace("+", "%20");
 
+            // Entries are written to the response as they are read, so memory use stays flat
+            StreamingResponseBody body = outputStream -> fileService.writeZipArchive(entries, outputStream);
+
             return ResponseEntity.ok()
-                    .contentType(org.springframework.http.MediaType.APPLICATION_OCTET_STREAM) // Standard ZIP MIME type
+                    .contentType(org.springframework.http.MediaType.parseMediaType("application/zip"))
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedZipFileName)
-                    .body(zipResource);
+                    .body(body);
 
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (RuntimeException e) {
-             logger.error("Error creating ZIP archive for file IDs {}: {}", fileIds, e.getMessage(), e);
-             // Consider different status codes based on the error (e.g., NOT_FOUND if some files are missing)
+             logger.error("Error preparing ZIP archive for file IDs {}: {}", fileIds, e.getMessage(), e);
              throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not create ZIP archive.", e);
         } catch (Exception e) {
             logger.error("Unexpected error during ZIP archive creation for file IDs {}: {}", fileIds, e.getMessage(), e);
@@ -320,6 +617,12 @@ public class FileController {
             // Return 202 Accepted with the task ID
             return ResponseEntity.accepted().body(Map.of("taskId", taskId));
 
+        } catch (ResponseStatusException e) {
+            // Background executor is saturated (tell the client to back off), or the task is too large
+            logger.warn("DOCX processing for IDs {} not started: {}", fileIds, e.getReason());
+            return ResponseEntity.status(e.getStatusCode())
+                    .headers(retryAfterIfOverloaded(e))
+                    .body(Map.of("message", e.getReason()));
         } catch (Exception e) {
             // Handle exceptions during the *initiation* of the task
             logger.error("Failed to initiate async DOCX processing for IDs {}: {}", fileIds, e.getMessage(), e);
@@ -339,55 +642,55 @@ public class FileController {
         logger.info("Received request to trigger embedding for file IDs: {}", fileIds);
 
         try {
-            // Call the service method to request embeddings
-            // Note: This service method currently runs synchronously in the loop.
-            // Consider making the service method @Async for long-running tasks.
-            fileService.requestEmbeddings(fileIds);
+            // Start the background job; FastAPI is called from the background executor
+            String taskId = fileService.startEmbeddingTask(fileIds);
+            logger.info("Started async embedding task with ID: {}", taskId);
 
-            logger.info("Embedding request process initiated successfully for file IDs: {}", fileIds);
-            // Return 200 OK indicating the process was initiated
-            // The actual embedding happens in the background (if service is async) or sequentially here.
-            return ResponseEntity.ok().body(Map.of("message", "Embedding process initiated for " + fileIds.size() + " files."));
+            // Return 202 Accepted with the task ID; progress is available via /process/status/{taskId}
+            return ResponseEntity.accepted().body(Map.of(
+                    "taskId", taskId,
+                    "message", "Embedding process initiated for " + fileIds.size() + " files."));
 
+        } catch (ResponseStatusException e) {
+            // Background executor is saturated (tell the client to back off), or the task is too large
+            logger.warn("Embedding for IDs {} not started: {}", fileIds, e.getReason());
+            return ResponseEntity.status(e.getStatusCode())
+                    .headers(retryAfterIfOverloaded(e))
+                    .body(Map.of("message", e.getReason()));
         } catch (Exception e) {
-            // Handle exceptions during the initiation or execution (if synchronous)
-            logger.error("Failed to process embedding request for IDs {}: {}", fileIds, e.getMessage(), e);
+            // Handle exceptions during the *initiation* of the task
+            logger.error("Failed to initiate embedding for IDs {}: {}", fileIds, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("message", "Failed to process the embedding request: " + e.getMessage()));
+                    .body(Map.of("message", "Failed to start the embedding task: " + e.getMessage()));
         }
     }
 
     // --- New Search Endpoint ---
 
     @PostMapping("/search")
-    public ResponseEntity<?> searchEmbeddings(@RequestBody SearchQueryDto searchQuery) {
+    public Mono<ResponseEntity<?>> searchEmbeddings(@RequestBody SearchQueryDto searchQuery) {
         if (searchQuery == null || searchQuery.getQuery() == null || searchQuery.getQuery().isBlank()) {
             logger.warn("Received empty or invalid search query.");
-            return ResponseEntity.badRequest().body(Map.of("message", "Search query cannot be empty"));
+            return Mono.just(ResponseEntity.badRequest().body(Map.of("message", "Search query cannot be empty")));
         }
-        // Optional: Validate n_results if you want to enforce limits here too
-        // int nResults = searchQuery.getNResults() > 0 ? searchQuery.getNResults() : 5; // Use default if not provided or invalid
 
         logger.info("Received search request with query: '{}', n_results: {}", searchQuery.getQuery(), searchQuery.getNResults());
 
-        try {
-            // Call a new service method to perform the search via FastAPI
-            // The service method should return the response body from FastAPI, likely as JsonNode or a specific DTO
-            JsonNode searchResults = fileService.searchEmbeddings(searchQuery.getQuery(), searchQuery.getNResults());
-
-            logger.info("Search completed successfully.");
-            // Return the results obtained from the service (which came from FastAPI)
-            return ResponseEntity.ok(searchResults);
-
-        } catch (ResponseStatusException e) {
-            // Re-throw exceptions that already have status codes (e.g., from service layer)
-             logger.error("Search failed with status {}: {}", e.getStatusCode(), e.getReason(), e);
-             throw e;
-        } catch (Exception e) {
-            // Handle other unexpected exceptions
-            logger.error("An unexpected error occurred during search for query '{}': {}", searchQuery.getQuery(), e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("message", "An unexpected error occurred during the search: " + e.getMessage()));
-        }
+        // Returned as a Mono, so the request thread is released (Servlet async) while FastAPI works.
+        // Results come back grouped per file, with file metadata resolved.
+        return fileService.searchFiles(searchQuery.getQuery(), searchQuery.getNResults())
+                .<ResponseEntity<?>>map(searchResults -> {
+                    logger.info("Search completed successfully: {} matching file(s).", searchResults.getResults().size());
+                    return ResponseEntity.ok(searchResults);
+                })
+                // Exceptions that already have status codes (e.g., from service layer) are answered as such
+                .doOnError(ResponseStatusException.class, e ->
+                        logger.error("Search failed with status {}: {}", e.getStatusCode(), e.getReason()))
+                .onErrorResume(e -> !(e instanceof ResponseStatusException), e -> {
+                    // Handle other unexpected exceptions
+                    logger.error("An unexpected error occurred during search for query '{}': {}", searchQuery.getQuery(), e.getMessage(), e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(Map.of("message", "An unexpected error occurred during the search: " + e.getMessage())));
+                });
     }
 }
@@ -0,0 +1,88 @@
+package com.example.springfile.controller;
+
+import com.example.springfile.dto.UploadInitRequestDto;
+import com.example.springfile.dto.UploadSessionDto;
+import com.example.springfile.model.File;
+import com.example.springfile.service.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumable (chunked) uploads.
+ * 1. POST /api/files/uploads with the file's name, size and category -> upload ID and chunk size
+ * 2. PUT /api/files/uploads/{uploadId}/chunks/{index} with the raw chunk bytes (any order, in parallel)
+ * 3. GET /api/files/uploads/{uploadId} to see which chunks are missing after an interruption
+ * 4. POST /api/files/uploads/{uploadId}/complete -> same response as /api/files/upload
+ */
+@RestController
+@RequestMapping("/api/files/uploads")
+public class UploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    private final ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    public UploadController(ChunkedUploadService chunkedUploadService) {
+        this.chunkedUploadService = chunkedUploadService;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionDto> startUpload(@RequestBody UploadInitRequestDto request) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(chunkedUploadService.startUpload(request));
+    }
+
+    @GetMapping("/{uploadId}")
+    public UploadSessionDto getUpload(@PathVariable String uploadId) {
+        return chunkedUploadService.getUpload(uploadId);
+    }
+
+    @PutMapping(value = "/{uploadId}/chunks/{chunkIndex}", consumes = "!" + MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+    public ResponseEntity<Void> uploadChunk(@PathVariable String uploadId,
+                                            @PathVariable int chunkIndex,
+                                            HttpServletRequest request) throws IOException {
+        chunkedUploadService.writeChunk(uploadId, chunkIndex, request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId) {
+        Map<String, Object> responseBody = new HashMap<>();
+        responseBody.put("message", "File upload process completed.");
+        try {
+            File savedFile = chunkedUploadService.completeUpload(uploadId);
+            responseBody.put("uploadedFiles", List.of(Map.of(
+                    "fileId", savedFile.getId(),
+                    "fileName", savedFile.getFileName(),
+                    "storageIdentifier", savedFile.getStorageIdentifier(),
+                    "status", "uploaded"
+            )));
+            return ResponseEntity.status(HttpStatus.CREATED).body(responseBody);
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error completing chunked upload {}: {}", uploadId, e.getMessage(), e);
+            responseBody.put("uploadedFiles", List.of());
+            responseBody.put("errors", List.of("Could not complete upload " + uploadId + ": " + e.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(responseBody);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId) {
+        chunkedUploadService.abortUpload(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+}
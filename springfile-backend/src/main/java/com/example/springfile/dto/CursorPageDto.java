@@ -0,0 +1,17 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// One slice of a keyset-paginated listing; cursors are opaque and null when there is nothing further
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class CursorPageDto<T> {
+    private List<T> items;
+    private String nextCursor; // Older items
+    private String prevCursor; // Newer items
+}
@@ -0,0 +1,20 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Optional filters for the file listing endpoints; null fields are ignored
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class FileFilterDto {
+    private Long categoryId;
+    private Long subcategoryId;
+    private String fileType; // Exact MIME type or a prefix such as "image/"
+    private Boolean embedding;
+    private LocalDateTime uploadedFrom; // Inclusive
+    private LocalDateTime uploadedTo; // Exclusive
+}
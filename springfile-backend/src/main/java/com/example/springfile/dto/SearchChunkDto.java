@@ -0,0 +1,16 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One matching chunk of a document, as returned by the vector search
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class SearchChunkDto {
+    private String id; // Chunk ID in the vector store
+    private Double distance; // Lower is more similar
+    private Integer chunkIndex;
+    private String document; // Chunk text
+}
@@ -0,0 +1,17 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// A file matching a search, with its matching chunks (best first)
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class SearchHitDto {
+    private FileDto file;
+    private Double bestDistance; // Distance of the best matching chunk
+    private List<SearchChunkDto> chunks;
+}
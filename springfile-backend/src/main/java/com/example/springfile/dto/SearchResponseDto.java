@@ -0,0 +1,16 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Search results grouped per file, best file first
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class SearchResponseDto {
+    private String query;
+    private List<SearchHitDto> results;
+}
@@ -0,0 +1,15 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Progress event of a background task: one of its files has finished
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class TaskItemEventDto {
+    private Long fileId;
+    private String result; // Same values as in the task status results, e.g. "embedded", "error: ..."
+    private TaskProgressDto progress; // Task counters including this file; null if the task is not in memory
+}
@@ -0,0 +1,16 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Progress counters of a background task; total - done - failed - skipped files are still pending
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class TaskProgressDto {
+    private int total;
+    private int done; // Processed or embedded
+    private int failed; // Result "error: ..."
+    private int skipped; // Nothing to do, e.g. "not_docx", "not_found"
+}
@@ -0,0 +1,19 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Starts a chunked (resumable) upload
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class UploadInitRequestDto {
+    private String fileName;
+    private Long size; // Total size in bytes
+    private String contentType; // Optional, as declared by the client
+    private Long categoryId;
+    private Long subcategoryId; // Optional
+    private Long chunkSize; // Optional, the server may adjust it
+    private String sha256; // Optional hex digest, verified on completion
+}
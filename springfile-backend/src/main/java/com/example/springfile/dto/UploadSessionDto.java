@@ -0,0 +1,21 @@
+package com.example.springfile.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// State of a chunked upload; chunk i covers bytes [i * chunkSize, min((i + 1) * chunkSize, size))
+@Data // Generates getters, setters, toString, equals, hashCode
+@NoArgsConstructor // Generates no-args constructor
+@AllArgsConstructor // Generates all-args constructor
+public class UploadSessionDto {
+    private String uploadId;
+    private String fileName;
+    private long size;
+    private long chunkSize;
+    private int totalChunks;
+    private int receivedChunks;
+    private List<Integer> missingChunks; // Chunk indices still to be sent
+}
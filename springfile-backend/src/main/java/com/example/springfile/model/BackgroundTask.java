@@ -0,0 +1,110 @@
+package com.example.springfile.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A background job (preprocessing or embedding a list of files), persisted so that its status
+ * survives a restart and unfinished work can be resumed. The files it covers are its
+ * {@link BackgroundTaskItem}s.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_background_task_status_updated_at", columnList = "status, updatedAt"))
+public class BackgroundTask {
+
+    public static final String TYPE_PREPROCESS = "PREPROCESS";
+    public static final String TYPE_EMBEDDING = "EMBEDDING";
+
+    public static final int MESSAGE_MAX_LENGTH = 4000;
+
+    @Id
+    @Column(length = 36)
+    private String id; // The task ID handed to clients
+
+    @Column(nullable = false, length = 20)
+    private String type;
+
+    @Column(nullable = false, length = 20)
+    private String status; // "PROCESSING", "COMPLETED", "FAILED"
+
+    @Column(length = MESSAGE_MAX_LENGTH)
+    private String message;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+
+    // Constructors
+    public BackgroundTask() {
+    }
+
+    public BackgroundTask(String id, String type, String status) {
+        this.id = id;
+        this.type = type;
+        this.status = status;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundTask{" +
+               "id='" + id + '\'' +
+               ", type='" + type + '\'' +
+               ", status='" + status + '\'' +
+               ", createdAt=" + createdAt +
+               ", updatedAt=" + updatedAt +
+               '}';
+    }
+}
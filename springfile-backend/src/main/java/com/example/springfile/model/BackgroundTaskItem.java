@@ -0,0 +1,80 @@
+package com.example.springfile.model;
+
+import jakarta.persistence.*;
+
+/**
+ * One file of a {@link BackgroundTask} and its outcome ("embedded", "not_docx", "error: ..."),
+ * or no result while it is still pending.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_background_task_item_task_file", columnNames = {"taskId", "fileId"}))
+public class BackgroundTaskItem {
+
+    public static final int RESULT_MAX_LENGTH = 1000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "background_task_item_seq")
+    @SequenceGenerator(name = "background_task_item_seq", sequenceName = "background_task_item_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 36)
+    private String taskId;
+
+    @Column(nullable = false)
+    private Long fileId;
+
+    @Column(length = RESULT_MAX_LENGTH)
+    private String result; // null while pending
+
+    // Constructors
+    public BackgroundTaskItem() {
+    }
+
+    public BackgroundTaskItem(String taskId, Long fileId) {
+        this.taskId = taskId;
+        this.fileId = fileId;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    public Long getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(Long fileId) {
+        this.fileId = fileId;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundTaskItem{" +
+               "id=" + id +
+               ", taskId='" + taskId + '\'' +
+               ", fileId=" + fileId +
+               ", result='" + result + '\'' +
+               '}';
+    }
+}
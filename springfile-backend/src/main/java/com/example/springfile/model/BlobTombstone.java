@@ -0,0 +1,82 @@
+package com.example.springfile.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A stored blob that lost a reference and may have to be removed from disk.
+ * Written in the same transaction that deletes the File rows, and removed by the
+ * BlobReclaimer once the blob has been deleted (or found to be still referenced),
+ * so a crash in between never leaves an untracked blob behind.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_blob_tombstone_storage_identifier", columnList = "storageIdentifier"))
+public class BlobTombstone {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "blob_tombstone_seq")
+    @SequenceGenerator(name = "blob_tombstone_seq", sequenceName = "blob_tombstone_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private String storageIdentifier;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(nullable = false)
+    private int attempts; // Failed reclaim attempts so far
+
+    // Constructors
+    public BlobTombstone() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public BlobTombstone(String storageIdentifier) {
+        this.storageIdentifier = storageIdentifier;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getStorageIdentifier() {
+        return storageIdentifier;
+    }
+
+    public void setStorageIdentifier(String storageIdentifier) {
+        this.storageIdentifier = storageIdentifier;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "BlobTombstone{" +
+               "id=" + id +
+               ", storageIdentifier='" + storageIdentifier + '\'' +
+               ", createdAt=" + createdAt +
+               ", attempts=" + attempts +
+               '}';
+    }
+}
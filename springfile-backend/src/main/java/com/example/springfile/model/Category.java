@@ -7,8 +7,11 @@ import java.util.ArrayList;
 @Entity
 public class Category {
 
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "category_seq")
+    @SequenceGenerator(name = "category_seq", sequenceName = "category_seq", allocationSize = Category.ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -4,10 +4,21 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+        // Keyset pagination seeks on (uploadTimestamp, id), optionally within a category
+        @Index(name = "idx_file_upload_ts_id", columnList = "uploadTimestamp, id"),
+        @Index(name = "idx_file_category_upload_ts_id", columnList = "category_id, uploadTimestamp, id"),
+        // Reference counting of shared (content-addressed) blobs
+        @Index(name = "idx_file_storage_identifier", columnList = "storageIdentifier")
+})
 public class File {
 
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Pooled sequence: IDs are allocated in blocks, so inserts can be batched (IDENTITY needs one round-trip per row)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_seq")
+    @SequenceGenerator(name = "file_seq", sequenceName = "file_seq", allocationSize = File.ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(nullable = false)
@@ -19,8 +30,8 @@ public class File {
     @Column(nullable = false)
     private long size; // Size in bytes
 
-    @Column(nullable = false, unique = true)
-    private String storageIdentifier; // Path or key for storage location
+    @Column(nullable = false)
+    private String storageIdentifier; // Path or key for storage location; shared by files with identical content
 
     @Column(nullable = false)
     private LocalDateTime uploadTimestamp;
@@ -7,8 +7,11 @@ import java.util.ArrayList;
 @Entity
 public class Subcategory {
 
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "subcategory_seq")
+    @SequenceGenerator(name = "subcategory_seq", sequenceName = "subcategory_seq", allocationSize = Subcategory.ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(nullable = false)
@@ -0,0 +1,28 @@
+package com.example.springfile.repository;
+
+import com.example.springfile.model.BackgroundTaskItem;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface BackgroundTaskItemRepository extends JpaRepository<BackgroundTaskItem, Long> {
+
+    List<BackgroundTaskItem> findByTaskIdOrderByIdAsc(String taskId);
+
+    /**
+     * Records an item's result inside the caller's transaction.
+     */
+    @Modifying
+    @Query("update BackgroundTaskItem i set i.result = :result where i.taskId = :taskId and i.fileId = :fileId")
+    int updateResult(@Param("taskId") String taskId, @Param("fileId") Long fileId, @Param("result") String result);
+
+    @Modifying
+    @Query("delete from BackgroundTaskItem i where i.taskId in :taskIds")
+    int deleteByTaskIds(@Param("taskIds") Collection<String> taskIds);
+}
@@ -0,0 +1,36 @@
+package com.example.springfile.repository;
+
+import com.example.springfile.model.BackgroundTask;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface BackgroundTaskRepository extends JpaRepository<BackgroundTask, String> {
+
+    List<BackgroundTask> findByStatus(String status);
+
+    /**
+     * Finished tasks last updated before the cutoff, a slice at a time (oldest first).
+     */
+    @Query("select t.id from BackgroundTask t where t.status in :statuses and t.updatedAt < :cutoff order by t.updatedAt")
+    List<String> findIdsByStatusInAndUpdatedAtBefore(@Param("statuses") Collection<String> statuses,
+                                                      @Param("cutoff") LocalDateTime cutoff,
+                                                      Limit limit);
+
+    @Modifying
+    @Query("update BackgroundTask t set t.status = :status, t.message = :message, t.updatedAt = :updatedAt where t.id = :id")
+    int updateStatus(@Param("id") String id, @Param("status") String status,
+                     @Param("message") String message, @Param("updatedAt") LocalDateTime updatedAt);
+
+    @Modifying
+    @Query("delete from BackgroundTask t where t.id in :ids")
+    int deleteByIds(@Param("ids") Collection<String> ids);
+}
@@ -0,0 +1,26 @@
+package com.example.springfile.repository;
+
+import com.example.springfile.model.BlobTombstone;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface BlobTombstoneRepository extends JpaRepository<BlobTombstone, Long> {
+
+    /**
+     * Oldest pending tombstones after the given id, a slice at a time.
+     */
+    List<BlobTombstone> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    @Transactional
+    @Modifying
+    @Query("update BlobTombstone t set t.attempts = t.attempts + 1 where t.id = :id")
+    int incrementAttempts(@Param("id") Long id);
+}
@@ -1,10 +1,253 @@
 package com.example.springfile.repository;
 
+import com.example.springfile.dto.FileDto;
 import com.example.springfile.model.File;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 @Repository
 public interface FileRepository extends JpaRepository<File, Long> {
-    // Add custom query methods if needed later
+
+    // Projects straight into FileDto: one query, no entity hydration and no lazy category/subcategory loads
+    String FILE_DTO_SELECT = "select new com.example.springfile.dto.FileDto(" +
+            "f.id, f.fileName, f.fileType, f.size, f.uploadTimestamp, c.name, s.name, f.embedding) " +
+            "from File f join f.category c left join f.subcategory s";
+
+    // Optional filters other than the category; null parameters are ignored
+    String FILE_FILTER_REST = " and (:subcategoryId is null or s.id = :subcategoryId)" +
+            " and (:fileType is null or f.fileType like concat(:fileType, '%'))" +
+            " and (:embedding is null or f.embedding = :embedding)" +
+            " and (:uploadedFrom is null or f.uploadTimestamp >= :uploadedFrom)" +
+            " and (:uploadedTo is null or f.uploadTimestamp < :uploadedTo)";
+
+    String FILE_FILTER_WHERE = " where (:categoryId is null or c.id = :categoryId)" + FILE_FILTER_REST;
+
+    // Same filters with a required category, compared on the foreign key so the database can seek
+    // on idx_file_category_upload_ts_id (a catch-all "is null or" predicate cannot be used for a seek)
+    String FILE_IN_CATEGORY_WHERE = " where f.category.id = :categoryId" + FILE_FILTER_REST;
+
+    /**
+     * Returns all files as DTOs using a single projection query.
+     *
+     * @return A list of FileDto objects for every file.
+     */
+    @Query(FILE_DTO_SELECT)
+    List<FileDto> findAllFileDtos();
+
+    /**
+     * Returns one page of files as DTOs, filtered by the given optional criteria.
+     * Null parameters are ignored.
+     *
+     * @return A page of FileDto objects.
+     */
+    @Query(value = FILE_DTO_SELECT + FILE_FILTER_WHERE,
+           countQuery = "select count(f) from File f join f.category c left join f.subcategory s" + FILE_FILTER_WHERE)
+    Page<FileDto> findFileDtos(@Param("categoryId") Long categoryId,
+                               @Param("subcategoryId") Long subcategoryId,
+                               @Param("fileType") String fileType,
+                               @Param("embedding") Boolean embedding,
+                               @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                               @Param("uploadedTo") LocalDateTime uploadedTo,
+                               Pageable pageable);
+
+    // --- Keyset pagination on (uploadTimestamp, id), newest first ---
+
+    /**
+     * First slice of the keyset-paginated listing (newest files).
+     */
+    @Query(FILE_DTO_SELECT + FILE_FILTER_WHERE + " order by f.uploadTimestamp desc, f.id desc")
+    List<FileDto> findFirstFileDtos(@Param("categoryId") Long categoryId,
+                                    @Param("subcategoryId") Long subcategoryId,
+                                    @Param("fileType") String fileType,
+                                    @Param("embedding") Boolean embedding,
+                                    @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                    @Param("uploadedTo") LocalDateTime uploadedTo,
+                                    Limit limit);
+
+    /**
+     * Files strictly older than the (timestamp, id) key, newest first.
+     * The redundant top-level bound on uploadTimestamp lets the database seek on the
+     * (uploadTimestamp, id) index instead of scanning up to the key.
+     */
+    @Query(FILE_DTO_SELECT + FILE_FILTER_WHERE +
+           " and f.uploadTimestamp <= :timestamp" +
+           " and (f.uploadTimestamp < :timestamp or (f.uploadTimestamp = :timestamp and f.id < :id))" +
+           " order by f.uploadTimestamp desc, f.id desc")
+    List<FileDto> findFileDtosBefore(@Param("categoryId") Long categoryId,
+                                     @Param("subcategoryId") Long subcategoryId,
+                                     @Param("fileType") String fileType,
+                                     @Param("embedding") Boolean embedding,
+                                     @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                     @Param("uploadedTo") LocalDateTime uploadedTo,
+                                     @Param("timestamp") LocalDateTime timestamp,
+                                     @Param("id") Long id,
+                                     Limit limit);
+
+    /**
+     * Files strictly newer than the (timestamp, id) key, oldest first (callers reverse the slice).
+     * Bounded on uploadTimestamp like findFileDtosBefore.
+     */
+    @Query(FILE_DTO_SELECT + FILE_FILTER_WHERE +
+           " and f.uploadTimestamp >= :timestamp" +
+           " and (f.uploadTimestamp > :timestamp or (f.uploadTimestamp = :timestamp and f.id > :id))" +
+           " order by f.uploadTimestamp asc, f.id asc")
+    List<FileDto> findFileDtosAfter(@Param("categoryId") Long categoryId,
+                                    @Param("subcategoryId") Long subcategoryId,
+                                    @Param("fileType") String fileType,
+                                    @Param("embedding") Boolean embedding,
+                                    @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                    @Param("uploadedTo") LocalDateTime uploadedTo,
+                                    @Param("timestamp") LocalDateTime timestamp,
+                                    @Param("id") Long id,
+                                    Limit limit);
+
+    // --- Keyset pagination within one category, on (category, uploadTimestamp, id) ---
+    // The category leads the ORDER BY (it is constant) so the database reads idx_file_category_upload_ts_id
+    // in order and stops after the limit, instead of sorting the whole category
+
+    /**
+     * First slice of the keyset-paginated listing of one category (newest files).
+     */
+    @Query(FILE_DTO_SELECT + FILE_IN_CATEGORY_WHERE + " order by f.category.id desc, f.uploadTimestamp desc, f.id desc")
+    List<FileDto> findFirstFileDtosInCategory(@Param("categoryId") Long categoryId,
+                                              @Param("subcategoryId") Long subcategoryId,
+                                              @Param("fileType") String fileType,
+                                              @Param("embedding") Boolean embedding,
+                                              @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                              @Param("uploadedTo") LocalDateTime uploadedTo,
+                                              Limit limit);
+
+    /**
+     * Files of one category strictly older than the (timestamp, id) key, newest first.
+     */
+    @Query(FILE_DTO_SELECT + FILE_IN_CATEGORY_WHERE +
+           " and f.uploadTimestamp <= :timestamp" +
+           " and (f.uploadTimestamp < :timestamp or (f.uploadTimestamp = :timestamp and f.id < :id))" +
+           " order by f.category.id desc, f.uploadTimestamp desc, f.id desc")
+    List<FileDto> findFileDtosInCategoryBefore(@Param("categoryId") Long categoryId,
+                                               @Param("subcategoryId") Long subcategoryId,
+                                               @Param("fileType") String fileType,
+                                               @Param("embedding") Boolean embedding,
+                                               @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                               @Param("uploadedTo") LocalDateTime uploadedTo,
+                                               @Param("timestamp") LocalDateTime timestamp,
+                                               @Param("id") Long id,
+                                               Limit limit);
+
+    /**
+     * Files of one category strictly newer than the (timestamp, id) key, oldest first (callers reverse the slice).
+     */
+    @Query(FILE_DTO_SELECT + FILE_IN_CATEGORY_WHERE +
+           " and f.uploadTimestamp >= :timestamp" +
+           " and (f.uploadTimestamp > :timestamp or (f.uploadTimestamp = :timestamp and f.id > :id))" +
+           " order by f.category.id asc, f.uploadTimestamp asc, f.id asc")
+    List<FileDto> findFileDtosInCategoryAfter(@Param("categoryId") Long categoryId,
+                                              @Param("subcategoryId") Long subcategoryId,
+                                              @Param("fileType") String fileType,
+                                              @Param("embedding") Boolean embedding,
+                                              @Param("uploadedFrom") LocalDateTime uploadedFrom,
+                                              @Param("uploadedTo") LocalDateTime uploadedTo,
+                                              @Param("timestamp") LocalDateTime timestamp,
+                                              @Param("id") Long id,
+                                              Limit limit);
+
+    // --- Content-addressed storage: File rows are the references to a stored blob ---
+
+    long countByStorageIdentifier(String storageIdentifier);
+
+    /**
+     * Of the given storage identifiers, returns those whose content already has embeddings
+     * through a file other than the excluded ones (so a requested file is never its own proof).
+     */
+    @Query("select distinct f.storageIdentifier from File f where f.embedding = true" +
+           " and f.storageIdentifier in :identifiers and f.id not in :excludedIds")
+    Set<String> findEmbeddedStorageIdentifiers(@Param("identifiers") Collection<String> identifiers,
+                                               @Param("excludedIds") Collection<Long> excludedIds);
+
+    /**
+     * Resolves storage identifiers to files in one query (uses idx_file_storage_identifier).
+     * Several files may share an identifier (identical content).
+     *
+     * @return Rows of [storageIdentifier, FileDto].
+     */
+    @Query("select f.storageIdentifier, new com.example.springfile.dto.FileDto(" +
+           "f.id, f.fileName, f.fileType, f.size, f.uploadTimestamp, c.name, s.name, f.embedding) " +
+           "from File f join f.category c left join f.subcategory s where f.storageIdentifier in :identifiers")
+    List<Object[]> findFileDtosByStorageIdentifiers(@Param("identifiers") Collection<String> identifiers);
+
+    /**
+     * Points a file at a new blob and clears its embedding flag, if it still uses the old blob.
+     *
+     * @return Number of rows updated (0 if the file was deleted or changed meanwhile).
+     */
+    @Transactional
+    @Modifying
+    @Query("update File f set f.storageIdentifier = :newIdentifier, f.embedding = false" +
+           " where f.id = :id and f.storageIdentifier = :oldIdentifier")
+    int replaceStorageIdentifier(@Param("id") Long id,
+                                 @Param("oldIdentifier") String oldIdentifier,
+                                 @Param("newIdentifier") String newIdentifier);
+
+    // --- Bulk delete ---
+
+    // Just the blob reference of a file
+    interface StorageReference {
+        Long getId();
+        String getStorageIdentifier();
+        boolean isEmbedding();
+    }
+
+    List<StorageReference> findByIdIn(Collection<Long> ids);
+
+    /**
+     * Deletes the given files with a single DELETE statement.
+     *
+     * @return The number of rows deleted.
+     */
+    @Modifying
+    @Query("delete from File f where f.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    // --- Reconciliation of the File table with the upload directory ---
+
+    /**
+     * Of the given storage identifiers, returns those referenced by at least one file.
+     */
+    @Query("select distinct f.storageIdentifier from File f where f.storageIdentifier in :identifiers")
+    Set<String> findReferencedStorageIdentifiers(@Param("identifiers") Collection<String> identifiers);
+
+    /**
+     * Blob references of the files after the given id, in id order, a slice at a time.
+     */
+    @Query("select f.id as id, f.storageIdentifier as storageIdentifier, f.embedding as embedding" +
+           " from File f where f.id > :id order by f.id")
+    List<StorageReference> findStorageReferencesAfter(@Param("id") Long id, Limit limit);
+
+    /**
+     * Walks all files in id order, a slice at a time (used by storage migrations).
+     */
+    List<File> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+    /**
+     * Flags a group of files as embedded with a single UPDATE statement.
+     *
+     * @param ids IDs of the files whose embeddings were stored successfully.
+     * @return The number of rows updated.
+     */
+    @Transactional
+    @Modifying
+    @Query("update File f set f.embedding = true where f.id in :ids")
+    int markEmbedded(@Param("ids") Collection<Long> ids);
 }
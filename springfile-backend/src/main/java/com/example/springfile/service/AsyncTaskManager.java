@@ -1,58 +1,199 @@
 package com.example.springfile.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.example.springfile.dto.TaskProgressDto;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Manages the status of asynchronous tasks.
- * Uses ConcurrentHashMap for thread-safe storage.
+ * Statuses are kept in a bounded Caffeine cache: finished tasks expire after
+ * {@code async.tasks.completed-ttl}, tasks still running after {@code async.tasks.running-ttl}
+ * (a safety net for tasks that never report back), and the total weight of finished tasks
+ * (one per task plus one per result entry) is capped at {@code async.tasks.max-weight}.
+ * Running tasks weigh nothing, so size-based eviction never drops a task that is still in progress.
+ * While a task runs, its workers record per-file results into its {@link TaskProgress}, locking only
+ * the file being recorded; status reads and the event stream see the results and done/failed/skipped
+ * counters as they are at that moment.
+ * Every task is also persisted through the {@link TaskStore}: a status that is no longer in memory
+ * is loaded from there, and tasks interrupted by a restart are resumed by the TaskRecoveryService.
+ * Registry size and evictions are published as cache.size, cache.evictions and
+ * cache.eviction.weight (cache=asyncTasks) under /actuator/metrics.
  */
 @Service
 public class AsyncTaskManager {
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncTaskManager.class);
 
-    // Stores the status of each task. Key: taskId, Value: AtomicReference containing the status object.
-    // Using AtomicReference to allow atomic updates of the status object itself.
-    private final Map<String, AtomicReference<TaskStatus>> taskStatuses = new ConcurrentHashMap<>();
+    private static final String REGISTRY_NAME = "asyncTasks";
+    private static final Set<String> TERMINAL_STATUSES = Set.of("COMPLETED", "FAILED");
+    private static final int UPDATE_LOCK_STRIPES = 64;
+
+    // Stores the status of each task. Key: taskId; a status is replaced as a whole on every update.
+    private final Cache<String, TaskStatus> taskStatuses;
+    private final TaskStore taskStore;
+    private final TaskEventBroadcaster taskEventBroadcaster;
+    // Striped locks that order status updates of the same task, held across the store write
+    private final Object[] updateLocks = new Object[UPDATE_LOCK_STRIPES];
 
     /**
      * Represents the status of a task. Can be extended with more fields like results, progress, etc.
      */
+    @JsonPropertyOrder({"status", "message", "progress", "results"}) // Counters are read before the results
     public static class TaskStatus {
-        private volatile String status; // e.g., "PROCESSING", "COMPLETED", "FAILED"
-        private volatile String message; // Optional message or error details
-        private volatile Map<Long, String> results; // Optional results map (e.g., from preprocessFiles)
+        private final String status; // e.g., "PROCESSING", "COMPLETED", "FAILED"
+        private final String message; // Optional message or error details
+        private final TaskProgress progress; // Per-file results and counters; filled in as files finish while running
 
         public TaskStatus(String initialStatus) {
-            this.status = initialStatus;
+            this(initialStatus, null, null);
+        }
+
+        private TaskStatus(String status, String message, TaskProgress progress) {
+            this.status = status;
+            this.message = message;
+            this.progress = progress;
         }
 
         // Getters (make them public)
         public String getStatus() { return status; }
         public String getMessage() { return message; }
-        public Map<Long, String> getResults() { return results; }
+        public TaskProgressDto getProgress() { return progress != null ? progress.snapshot() : null; }
+        public Map<Long, String> getResults() { return progress != null ? progress.results() : null; }
+
+        boolean isTerminal() {
+            return TERMINAL_STATUSES.contains(status);
+        }
+
+        // Finished tasks are weighed by their results; running tasks are exempt from size eviction
+        int weight() {
+            return isTerminal() ? 1 + (progress != null ? progress.size() : 0) : 0;
+        }
+    }
+
+    @Autowired
+    public AsyncTaskManager(TaskStore taskStore,
+                            TaskEventBroadcaster taskEventBroadcaster,
+                            @Value("${async.tasks.max-weight:100000}") long maxWeight,
+                            @Value("${async.tasks.completed-ttl:1h}") Duration completedTtl,
+                            @Value("${async.tasks.running-ttl:24h}") Duration runningTtl,
+                            MeterRegistry meterRegistry) {
+        this.taskStore = taskStore;
+        this.taskEventBroadcaster = taskEventBroadcaster;
+        Arrays.setAll(updateLocks, i -> new Object());
+        this.taskStatuses = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String taskId, TaskStatus status) -> status.weight())
+                .expireAfter(new Expiry<String, TaskStatus>() {
+                    @Override
+                    public long expireAfterCreate(String taskId, TaskStatus status, long currentTime) {
+                        return (status.isTerminal() ? completedTtl : runningTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String taskId, TaskStatus status, long currentTime, long currentDuration) {
+                        // The clock restarts when a task finishes
+                        return expireAfterCreate(taskId, status, currentTime);
+                    }
 
-        // Setters (consider if needed, or update via updateStatus methods)
-        // Using volatile ensures visibility across threads
+                    @Override
+                    public long expireAfterRead(String taskId, TaskStatus status, long currentTime, long currentDuration) {
+                        return currentDuration; // Polling does not keep a task alive
+                    }
+                })
+                .evictionListener((String taskId, TaskStatus status, RemovalCause cause) ->
+                        logger.debug("Task {} ({}) evicted from the registry: {}", taskId,
+                                status != null ? status.getStatus() : null, cause))
+                .scheduler(Scheduler.systemScheduler()) // Expire promptly, not only on the next access
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, taskStatuses, REGISTRY_NAME);
     }
 
     /**
-     * Registers a new task with an initial status.
+     * Registers a new task in the PROCESSING state and stores it, with one pending item per file,
+     * so it can be resumed after a restart.
      * @param taskId The unique ID for the task.
-     * @param initialStatus The starting status (e.g., "PROCESSING").
+     * @param type The kind of work (BackgroundTask.TYPE_PREPROCESS or TYPE_EMBEDDING).
+     * @param fileIds The files the task works on.
      */
-    public void registerTask(String taskId, String initialStatus) {
-        if (taskStatuses.containsKey(taskId)) {
+    public void registerTask(String taskId, String type, List<Long> fileIds) {
+        int total = new LinkedHashSet<>(fileIds).size(); // One stored item per distinct file
+        if (taskStatuses.getIfPresent(taskId) != null) {
             logger.warn("Task ID {} already registered. Overwriting status.", taskId);
         }
-        taskStatuses.put(taskId, new AtomicReference<>(new TaskStatus(initialStatus)));
-        logger.info("Task {} registered with status: {}", taskId, initialStatus);
+        taskStore.create(taskId, type, fileIds);
+        taskStatuses.put(taskId, new TaskStatus("PROCESSING", null, new TaskProgress(total, Map.of())));
+        logger.info("Task {} registered with status: PROCESSING", taskId);
+    }
+
+    /**
+     * Puts a task interrupted by a restart back into the PROCESSING state, with the results its
+     * files had before; the remaining files are resubmitted by the caller.
+     * @param total The number of files in the task, done or pending.
+     */
+    public void resumeTask(String taskId, int total, Map<Long, String> earlierResults) {
+        taskStatuses.put(taskId, new TaskStatus("PROCESSING", null, new TaskProgress(total, earlierResults)));
+        logger.info("Task {} resumed with {} file(s) already done", taskId, earlierResults.size());
+    }
+
+    /**
+     * Records the outcome of one file while the task is running. It is visible in the task status
+     * right away and stored with the next write-behind batch.
+     */
+    public void recordItemResult(String taskId, Long fileId, String result) {
+        addRunningResult(taskId, fileId, result);
+        taskStore.recordItemResult(taskId, fileId, result);
+    }
+
+    /**
+     * Like recordItemResult, but stored in the caller's transaction, for work that must not be
+     * repeated when the task is resumed. The result becomes visible in the task status (and is
+     * sent to its event streams) only once that transaction has committed.
+     */
+    public void recordItemResultInTransaction(String taskId, Long fileId, String result) {
+        taskStore.recordItemResultInTransaction(taskId, fileId, result);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addRunningResult(taskId, fileId, result);
+                }
+            });
+        } else {
+            addRunningResult(taskId, fileId, result);
+        }
+    }
+
+    private void addRunningResult(String taskId, Long fileId, String result) {
+        TaskStatus current = taskStatuses.getIfPresent(taskId);
+        TaskProgressDto progress = null;
+        if (current != null && !current.isTerminal() && current.progress != null) {
+            current.progress.record(fileId, result);
+            progress = current.progress.snapshot();
+        }
+        taskEventBroadcaster.publishItem(taskId, fileId, result, progress);
     }
 
     /**
@@ -63,21 +204,56 @@ public class AsyncTaskManager {
      * @param results Optional results map.
      */
     public void updateTaskStatus(String taskId, String newStatus, String message, Map<Long, String> results) {
-        AtomicReference<TaskStatus> statusRef = taskStatuses.get(taskId);
-        if (statusRef != null) {
-            // Atomically update the TaskStatus object within the AtomicReference
-            statusRef.updateAndGet(currentStatus -> {
-                currentStatus.status = newStatus;
-                currentStatus.message = message;
-                currentStatus.results = results; // Store the results map
-                return currentStatus;
-            });
-            logger.info("Task {} status updated to: {}", taskId, newStatus);
+        TaskStatus updated;
+        // Updates of one task are applied (and stored) in order; the store is written outside the cache's
+        // compute, so a database round trip never blocks reads, recorded results or other tasks' updates
+        synchronized (updateLockFor(taskId)) {
+            TaskStatus current = taskStatuses.getIfPresent(taskId);
+            String finalStatus = newStatus;
+            String finalMessage = message;
+            Map<Long, String> finalResults = results;
+            Map<Long, String> currentResults = (current != null) ? current.getResults() : null;
+            if (currentResults != null && !currentResults.isEmpty() && TERMINAL_STATUSES.contains(newStatus)) {
+                // A resumed run only reports the files it processed itself; keep the ones done before the restart
+                finalResults = new HashMap<>(currentResults);
+                if (results != null) {
+                    finalResults.putAll(results);
+                }
+                String earlierErrors = finalResults.entrySet().stream()
+                        .filter(entry -> (results == null || !results.containsKey(entry.getKey())) && entry.getValue().startsWith("error"))
+                        .map(entry -> "Error in ID " + entry.getKey() + ": " + entry.getValue().substring("error: ".length()))
+                        .collect(Collectors.joining("; "));
+                if (!earlierErrors.isEmpty()) {
+                    finalStatus = "FAILED";
+                    finalMessage = (message == null) ? earlierErrors : earlierErrors + "; " + message;
+                }
+            }
+            TaskProgress finalProgress = null;
+            if (finalResults != null) {
+                int total = (current != null && current.progress != null) ? current.progress.total() : finalResults.size();
+                finalProgress = new TaskProgress(Math.max(total, finalResults.size()), finalResults);
+            }
+            TaskStatus merged = new TaskStatus(finalStatus, finalMessage, finalProgress);
+
+            boolean stored = taskStore.updateStatus(taskId, finalStatus, finalMessage, finalResults);
+            // Replacing the entry also re-weighs it and restarts its expiry. It also replaces a stale
+            // status loaded from the store while it was being written.
+            updated = taskStatuses.asMap().compute(taskId, (id, inMemory) ->
+                    (inMemory == null && !stored) ? null : merged); // Unknown or removed; nothing to bring back
+        }
+
+        if (updated != null) {
+            taskEventBroadcaster.publishStatus(taskId, updated);
+            logger.info("Task {} status updated to: {}", taskId, updated.getStatus());
         } else {
             logger.warn("Attempted to update status for unknown or already completed task ID: {}", taskId);
         }
     }
 
+    private Object updateLockFor(String taskId) {
+        return updateLocks[Math.floorMod(taskId.hashCode(), updateLocks.length)];
+    }
+
      /**
      * Updates the status of an existing task (simplified version).
      * @param taskId The ID of the task to update.
@@ -88,26 +264,39 @@ public class AsyncTaskManager {
     }
 
     /**
-     * Retrieves the current status of a task.
+     * Retrieves the current status of a task, from the task store if it is not in memory
+     * (e.g. after a restart, or once it has expired from the registry).
      * @param taskId The ID of the task.
      * @return The TaskStatus object, or null if the task ID is not found.
      */
     public TaskStatus getTaskStatus(String taskId) {
-        AtomicReference<TaskStatus> statusRef = taskStatuses.get(taskId);
-        return (statusRef != null) ? statusRef.get() : null;
+        TaskStatus cached = taskStatuses.getIfPresent(taskId);
+        if (cached != null) {
+            return cached;
+        }
+        // Loaded outside the cache, so the database round trip never blocks updates or evictions
+        TaskStatus loaded = taskStore.load(taskId)
+                .map(stored -> new TaskStatus(stored.task().getStatus(), stored.task().getMessage(),
+                        new TaskProgress(stored.results().size() + stored.pendingFileIds().size(), stored.results())))
+                .orElse(null);
+        if (loaded == null) {
+            return null;
+        }
+        // A status put in meanwhile (e.g. by updateTaskStatus) is newer than the loaded one
+        TaskStatus existing = taskStatuses.asMap().putIfAbsent(taskId, loaded);
+        return (existing != null) ? existing : loaded;
     }
 
     /**
-     * Removes a task entry (optional, e.g., for cleanup).
+     * Removes a task entry and its stored state (e.g. when it could not be started).
      * @param taskId The ID of the task to remove.
      */
     public void removeTask(String taskId) {
-        if (taskStatuses.remove(taskId) != null) {
+        taskStore.delete(taskId);
+        if (taskStatuses.asMap().remove(taskId) != null) {
             logger.info("Removed task entry for ID: {}", taskId);
         } else {
              logger.warn("Attempted to remove non-existent task entry for ID: {}", taskId);
         }
     }
-
-    // TODO: Consider adding cleanup logic for old tasks (e.g., using a Scheduled task or TTL cache)
 }
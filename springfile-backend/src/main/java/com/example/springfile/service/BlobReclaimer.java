@@ -0,0 +1,110 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.AsyncConfig;
+import com.example.springfile.model.BlobTombstone;
+import com.example.springfile.repository.BlobTombstoneRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Removes blobs whose files have been deleted, in the background.
+ * Deletes only record a BlobTombstone (in the deleting transaction); this job works through the
+ * tombstones, deletes each blob that no File references anymore and then drops the tombstone.
+ * A tombstone is only removed after its blob is gone, so a crash at any point just means the
+ * blob is reclaimed on a later run. Failed attempts stay queued and are retried.
+ */
+@Service
+public class BlobReclaimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobReclaimer.class);
+
+    private final BlobTombstoneRepository blobTombstoneRepository;
+    private final FileStorageService fileStorageService;
+    // Scheduled and on-demand runs would only race each other for the same tombstones
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${file.storage.reclaim-batch-size:100}")
+    private int batchSize;
+
+    @Autowired
+    public BlobReclaimer(BlobTombstoneRepository blobTombstoneRepository, FileStorageService fileStorageService) {
+        this.blobTombstoneRepository = blobTombstoneRepository;
+        this.fileStorageService = fileStorageService;
+    }
+
+    /**
+     * Picks up tombstones left by earlier runs, failed attempts and restarts.
+     */
+    @Scheduled(initialDelayString = "${file.storage.reclaim-interval:1m}", fixedDelayString = "${file.storage.reclaim-interval:1m}")
+    public void reclaimOnSchedule() {
+        reclaimPendingBlobs();
+    }
+
+    /**
+     * Starts a run right away, e.g. after a delete.
+     */
+    @Async(AsyncConfig.BACKGROUND_TASK_EXECUTOR)
+    public void reclaimAsync() {
+        reclaimPendingBlobs();
+    }
+
+    /**
+     * Works through all pending tombstones, a batch at a time.
+     *
+     * @return Number of blobs deleted.
+     */
+    public int reclaimPendingBlobs() {
+        if (!running.compareAndSet(false, true)) {
+            return 0; // Another run is already draining the queue
+        }
+        int reclaimed = 0;
+        try {
+            long lastId = 0;
+            List<BlobTombstone> batch;
+            do {
+                batch = blobTombstoneRepository.findByIdGreaterThanOrderByIdAsc(lastId, Limit.of(batchSize));
+                List<Long> doneIds = new ArrayList<>();
+                Set<String> handledIdentifiers = new HashSet<>(); // The same blob may have several tombstones
+                for (BlobTombstone tombstone : batch) {
+                    lastId = tombstone.getId();
+                    String storageIdentifier = tombstone.getStorageIdentifier();
+                    try {
+                        if (handledIdentifiers.add(storageIdentifier)
+                                && fileStorageService.reclaimIfUnreferenced(storageIdentifier)) {
+                            reclaimed++;
+                        }
+                        doneIds.add(tombstone.getId());
+                    } catch (RuntimeException e) {
+                        handledIdentifiers.remove(storageIdentifier);
+                        logger.warn("Could not reclaim stored file {} (attempt {}): {}",
+                                storageIdentifier, tombstone.getAttempts() + 1, e.getMessage());
+                        blobTombstoneRepository.incrementAttempts(tombstone.getId());
+                    }
+                }
+                if (!doneIds.isEmpty()) {
+                    blobTombstoneRepository.deleteAllByIdInBatch(doneIds);
+                }
+            } while (batch.size() == batchSize);
+        } catch (RuntimeException e) {
+            logger.error("Blob reclamation run failed: {}", e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+        if (reclaimed > 0) {
+            logger.info("Reclaimed {} unreferenced stored file(s)", reclaimed);
+        }
+        return reclaimed;
+    }
+}
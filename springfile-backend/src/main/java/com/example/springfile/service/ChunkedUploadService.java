@@ -0,0 +1,300 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.UploadInitRequestDto;
+import com.example.springfile.dto.UploadSessionDto;
+import com.example.springfile.model.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable uploads: the client announces the file, sends fixed-size chunks (in any order,
+ * in parallel, and again after a dropped connection) and then completes the upload.
+ * Chunks are written at their offsets into a preallocated partial file; the File entity is
+ * only created on completion, when the assembled file is moved into storage.
+ *
+ * Sessions are kept in memory. Sessions idle longer than file.upload.session-timeout, and
+ * partial files without a session (e.g. after a restart), are removed periodically.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final long MIN_CHUNK_SIZE = DataSize.ofMegabytes(1).toBytes();
+    private static final long MAX_CHUNK_SIZE = DataSize.ofMegabytes(64).toBytes();
+
+    private final FileService fileService;
+    private final FileStorageService fileStorageService;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${file.upload.chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+    @Value("${file.upload.max-stream-size:10GB}")
+    private DataSize maxUploadSize;
+    @Value("${file.upload.session-timeout:24h}")
+    private Duration sessionTimeout;
+
+    @Autowired
+    public ChunkedUploadService(FileService fileService, FileStorageService fileStorageService) {
+        this.fileService = fileService;
+        this.fileStorageService = fileStorageService;
+    }
+
+    /**
+     * Starts a chunked upload and preallocates its partial file.
+     *
+     * @throws ResponseStatusException (400/413) for invalid requests.
+     */
+    public UploadSessionDto startUpload(UploadInitRequestDto request) {
+        if (!StringUtils.hasText(request.getFileName()) || request.getSize() == null || request.getSize() < 0
+                || request.getCategoryId() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fileName, size and categoryId are required.");
+        }
+        if (request.getSize() > maxUploadSize.toBytes()) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "File exceeds the maximum upload size of " + maxUploadSize.toBytes() + " bytes.");
+        }
+        if (request.getSha256() != null && !request.getSha256().matches("(?i)[0-9a-f]{64}")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sha256 must be 64 hex characters.");
+        }
+        try {
+            fileService.validateUploadTarget(request.getCategoryId(), request.getSubcategoryId()); // Once, not per chunk
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize.toBytes();
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        String uploadId = UUID.randomUUID().toString();
+        Path partialFile = fileStorageService.createPartialFile(uploadId, request.getSize());
+
+        UploadSession session = new UploadSession(uploadId, request, chunkSize, partialFile);
+        sessions.put(uploadId, session);
+        logger.info("Started chunked upload {} for '{}' ({} bytes in {} chunk(s) of {} bytes)",
+                uploadId, request.getFileName(), request.getSize(), session.totalChunks, chunkSize);
+        return session.toDto();
+    }
+
+    /**
+     * Returns the state of an upload, including the chunks still missing (used to resume).
+     */
+    public UploadSessionDto getUpload(String uploadId) {
+        return requireSession(uploadId).toDto();
+    }
+
+    /**
+     * Writes one chunk. Re-sending a chunk overwrites it with the same bytes, so retries are safe.
+     *
+     * @throws ResponseStatusException (400) for an invalid index or length, (409) if the upload is completing.
+     */
+    public void writeChunk(String uploadId, int chunkIndex, InputStream content) {
+        UploadSession session = requireSession(uploadId);
+        if (chunkIndex < 0 || chunkIndex >= session.totalChunks) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Chunk index must be between 0 and " + (session.totalChunks - 1) + ".");
+        }
+        long offset = chunkIndex * session.chunkSize;
+        long length = Math.min(session.chunkSize, session.size - offset);
+
+        session.beginChunkWrite();
+        boolean written = false;
+        try {
+            fileStorageService.writeChunk(session.partialFile, offset, length, content);
+            written = true;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk " + chunkIndex + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write chunk " + chunkIndex + " of upload " + uploadId, e);
+        } finally {
+            session.endChunkWrite(chunkIndex, written);
+        }
+    }
+
+    /**
+     * Completes an upload once every chunk has been received and creates its File.
+     * If completing fails for a transient reason (e.g. a database or I/O error), the assembled
+     * file is kept and the client can call complete again; an upload whose content does not
+     * match its announced SHA-256 is discarded.
+     *
+     * @throws ResponseStatusException (409) if chunks are missing or still being written,
+     *         (422) if the content does not match the announced SHA-256.
+     */
+    public File completeUpload(String uploadId) {
+        UploadSession session = requireSession(uploadId);
+        session.beginCompletion();
+        boolean finished = false;
+        try {
+            File file = fileService.uploadAssembledFile(session.partialFile, session.fileName, session.contentType,
+                    session.expectedSha256, session.categoryId, session.subcategoryId);
+            finished = true;
+            logger.info("Completed chunked upload {} as file ID {}", uploadId, file.getId());
+            return file;
+        } catch (ResponseStatusException e) {
+            finished = true; // The content itself is wrong; the client has to start over
+            throw e;
+        } catch (RuntimeException e) {
+            // Retryable unless the assembled file is gone (moved before the commit failed)
+            finished = !Files.exists(session.partialFile);
+            logger.warn("Completing chunked upload {} failed{}: {}", uploadId,
+                    finished ? "" : ", it can be completed again", e.getMessage());
+            throw e;
+        } finally {
+            if (finished) {
+                // The partial file has been moved into storage, or is only left over on dedup hits
+                sessions.remove(uploadId);
+                fileStorageService.deletePartialFile(uploadId);
+            } else {
+                session.endCompletion();
+            }
+        }
+    }
+
+    public void abortUpload(String uploadId) {
+        UploadSession session = sessions.remove(uploadId);
+        if (session == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        }
+        fileStorageService.deletePartialFile(uploadId);
+        logger.info("Aborted chunked upload {}", uploadId);
+    }
+
+    /**
+     * Removes uploads that have been idle longer than the session timeout, and partial files
+     * that no session owns anymore.
+     */
+    @Scheduled(fixedDelayString = "${file.upload.cleanup-interval:15m}", initialDelayString = "${file.upload.cleanup-interval:15m}")
+    public void removeStaleUploads() {
+        Instant cutoff = Instant.now().minus(sessionTimeout);
+        sessions.values().removeIf(session -> {
+            if (session.isIdleSince(cutoff)) {
+                fileStorageService.deletePartialFile(session.uploadId);
+                logger.info("Removed stale chunked upload {} ('{}')", session.uploadId, session.fileName);
+                return true;
+            }
+            return false;
+        });
+        for (Path partialFile : fileStorageService.listPartialFiles()) {
+            String fileName = partialFile.getFileName().toString();
+            String uploadId = fileName.substring(0, fileName.lastIndexOf('.'));
+            try {
+                if (!sessions.containsKey(uploadId) && Files.getLastModifiedTime(partialFile).toInstant().isBefore(cutoff)) {
+                    fileStorageService.deletePartialFile(uploadId);
+                    logger.info("Removed orphaned partial upload {}", fileName);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not inspect partial upload {}: {}", fileName, e.getMessage());
+            }
+        }
+    }
+
+    private UploadSession requireSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        }
+        return session;
+    }
+
+    /**
+     * In-memory state of one chunked upload. Chunk I/O happens outside the lock; only the
+     * bookkeeping (received chunks, writes in flight, completion) is synchronized.
+     */
+    private static final class UploadSession {
+        final String uploadId;
+        final String fileName;
+        final String contentType;
+        final String expectedSha256;
+        final Long categoryId;
+        final Long subcategoryId;
+        final long size;
+        final long chunkSize;
+        final int totalChunks;
+        final Path partialFile;
+        private final BitSet receivedChunks = new BitSet();
+        private int writesInFlight;
+        private boolean completing;
+        private volatile Instant lastActivity = Instant.now();
+
+        UploadSession(String uploadId, UploadInitRequestDto request, long chunkSize, Path partialFile) {
+            this.uploadId = uploadId;
+            this.fileName = request.getFileName();
+            this.contentType = request.getContentType();
+            this.expectedSha256 = request.getSha256();
+            this.categoryId = request.getCategoryId();
+            this.subcategoryId = request.getSubcategoryId();
+            this.size = request.getSize();
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) ((size + chunkSize - 1) / chunkSize);
+            this.partialFile = partialFile;
+        }
+
+        synchronized void beginChunkWrite() {
+            if (completing) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is being completed.");
+            }
+            writesInFlight++;
+            lastActivity = Instant.now();
+        }
+
+        synchronized void endChunkWrite(int chunkIndex, boolean written) {
+            writesInFlight--;
+            if (written) {
+                receivedChunks.set(chunkIndex);
+            }
+            lastActivity = Instant.now();
+        }
+
+        synchronized void beginCompletion() {
+            if (completing) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already being completed.");
+            }
+            int missing = totalChunks - receivedChunks.cardinality();
+            if (missing > 0 || writesInFlight > 0) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        missing > 0 ? missing + " chunk(s) still missing." : "Chunks are still being written.");
+            }
+            completing = true;
+            lastActivity = Instant.now();
+        }
+
+        synchronized void endCompletion() {
+            completing = false;
+            lastActivity = Instant.now();
+        }
+
+        // A completion in progress is never stale, however long it takes
+        synchronized boolean isIdleSince(Instant cutoff) {
+            return !completing && lastActivity.isBefore(cutoff);
+        }
+
+        synchronized UploadSessionDto toDto() {
+            List<Integer> missingChunks = new ArrayList<>();
+            for (int i = receivedChunks.nextClearBit(0); i < totalChunks; i = receivedChunks.nextClearBit(i + 1)) {
+                missingChunks.add(i);
+            }
+            return new UploadSessionDto(uploadId, fileName, size, chunkSize, totalChunks,
+                    receivedChunks.cardinality(), missingChunks);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.springfile.service;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Determines the content type of an upload from its leading bytes ("magic numbers"),
+ * falling back to the client-declared type and then to the file name extension.
+ * Only needs the first SNIFF_LENGTH bytes, so it runs on the fly while streaming.
+ */
+final class ContentTypeSniffer {
+
+    static final int SNIFF_LENGTH = 16;
+
+    private static final byte[] PDF = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] GIF = "GIF8".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ZIP = {'P', 'K', 0x03, 0x04};
+
+    private ContentTypeSniffer() {
+    }
+
+    static String sniff(byte[] head, String declaredType, String fileName) {
+        if (startsWith(head, PDF)) {
+            return MediaType.APPLICATION_PDF_VALUE;
+        }
+        if (startsWith(head, PNG)) {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        if (startsWith(head, JPEG)) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (startsWith(head, GIF)) {
+            return MediaType.IMAGE_GIF_VALUE;
+        }
+        if (startsWith(head, ZIP)) {
+            // DOCX/XLSX/PPTX etc. are ZIP containers; the extension tells them apart
+            return MediaTypeFactory.getMediaType(fileName)
+                    .map(MediaType::toString)
+                    .orElse("application/zip");
+        }
+        if (declaredType != null && !declaredType.isBlank()
+                && !MediaType.APPLICATION_OCTET_STREAM_VALUE.equals(declaredType)) {
+            return declaredType;
+        }
+        return MediaTypeFactory.getMediaType(fileName)
+                .map(MediaType::toString)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    }
+
+    private static boolean startsWith(byte[] head, byte[] magic) {
+        return head.length >= magic.length && Arrays.equals(head, 0, magic.length, magic, 0, magic.length);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.AsyncConfig;
+import com.example.springfile.config.FastApiClientProperties;
+import com.example.springfile.config.ResilienceConfig;
+import com.example.springfile.config.WebConfig;
+import com.example.springfile.model.File;
+import com.example.springfile.repository.FileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs embedding batches in the background.
+ * Files are sent to the FastAPI /embedding/ endpoint with bounded concurrency, and the
+ * embedding flag is flipped with one batched UPDATE per completed group of files.
+ * Content is embedded once: files sharing a blob are sent together, and blobs that already
+ * have embeddings through another file are marked without calling FastAPI.
+ * No database transaction is held open while FastAPI is working.
+ */
+@Service
+public class EmbeddingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingService.class);
+
+    private static final String FASTAPI_EMBEDDING_ENDPOINT = "/embedding/"; // Relative path for embedding
+
+    private final FileRepository fileRepository;
+    private final FileStorageService fileStorageService;
+    private final WebClient fastapiWebClient;
+    private final AsyncTaskManager asyncTaskManager;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final SearchResultCache searchResultCache;
+    private final FastApiClientProperties fastApiClientProperties;
+    private final FastApiResilience fastApiResilience;
+
+    // Embedding job tuning
+    @Value("${fastapi.embedding.concurrency:4}")
+    private int embeddingConcurrency;
+    @Value("${fastapi.embedding.update-batch-size:20}")
+    private int updateBatchSize;
+    @Value("${fastapi.embedding.update-max-delay:2s}")
+    private Duration updateMaxDelay;
+
+    // Simple record for the FastAPI embedding request payload
+    private record EmbeddingRequest(String file_path) {}
+
+    // Result of embedding one group of files sharing a blob; error is null on success
+    private record GroupOutcome(List<Long> ids, String error) {}
+
+    @Autowired
+    public EmbeddingService(FileRepository fileRepository,
+                            FileStorageService fileStorageService,
+                            WebClient fastapiWebClient,
+                            AsyncTaskManager asyncTaskManager,
+                            PlatformTransactionManager transactionManager,
+                            SearchResultCache searchResultCache,
+                            FastApiClientProperties fastApiClientProperties,
+                            FastApiResilience fastApiResilience) {
+        this.fileRepository = fileRepository;
+        this.fileStorageService = fileStorageService;
+        this.fastapiWebClient = fastapiWebClient;
+        this.asyncTaskManager = asyncTaskManager;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.searchResultCache = searchResultCache;
+        this.fastApiClientProperties = fastApiClientProperties;
+        this.fastApiResilience = fastApiResilience;
+    }
+
+    /**
+     * Requests embedding generation from the FastAPI service for the given file IDs.
+     * Per-file outcomes ("embedded", "not_found", "error: ...") are reported through the task.
+     *
+     * @param fileIds List of file IDs to request embedding for.
+     * @param taskId The task ID under which progress is reported.
+     */
+    @Async(AsyncConfig.BACKGROUND_TASK_EXECUTOR)
+    public void requestEmbeddingsAsync(List<Long> fileIds, String taskId) {
+        Map<Long, String> results = new ConcurrentHashMap<>();
+        // Each file's outcome is visible in the task status right away and stored for resumption
+        BiConsumer<Long, String> report = (id, fileStatus) -> {
+            results.put(id, fileStatus);
+            asyncTaskManager.recordItemResult(taskId, id, fileStatus);
+        };
+        logger.info("Task {} - Starting embedding for file IDs: {} (concurrency={})", taskId, fileIds, embeddingConcurrency);
+
+        try {
+            // A repeated ID would be grouped, marked and reported twice
+            Set<Long> distinctIds = new LinkedHashSet<>(fileIds);
+
+            // 1. Resolve storage identifiers with a single short read
+            Map<Long, String> storageIdentifiers = readOnlyTransactionTemplate.execute(txStatus ->
+                    fileRepository.findAllById(distinctIds).stream()
+                            .collect(Collectors.toMap(File::getId, File::getStorageIdentifier)));
+
+            // Files sharing a blob (identical content) are embedded once, as a group
+            Map<String, List<Long>> idsByStorageIdentifier = new LinkedHashMap<>();
+            for (Long id : distinctIds) {
+                String storageIdentifier = storageIdentifiers.get(id);
+                if (!storageIdentifiers.containsKey(id)) {
+                    logger.warn("Task {} - Embedding request skipped: File not found for ID {}", taskId, id);
+                    report.accept(id, "not_found");
+                } else if (storageIdentifier == null || storageIdentifier.isBlank()) {
+                    logger.warn("Task {} - Embedding request skipped: File ID {} has no valid storage identifier.", taskId, id);
+                    report.accept(id, "error: no valid storage identifier");
+                } else {
+                    idsByStorageIdentifier.computeIfAbsent(storageIdentifier, key -> new ArrayList<>()).add(id);
+                }
+            }
+
+            // 2. Content that already has embeddings (through another file) needs no FastAPI call
+            if (!idsByStorageIdentifier.isEmpty()) {
+                // The requested files themselves do not count: asking again re-embeds them, as before
+                List<Long> requestedIds = idsByStorageIdentifier.values().stream().flatMap(List::stream).toList();
+                Set<String> alreadyEmbedded = fileRepository.findEmbeddedStorageIdentifiers(idsByStorageIdentifier.keySet(), requestedIds);
+                List<Long> reusedIds = new ArrayList<>();
+                alreadyEmbedded.forEach(identifier -> reusedIds.addAll(idsByStorageIdentifier.remove(identifier)));
+                if (!reusedIds.isEmpty()) {
+                    fileRepository.markEmbedded(reusedIds);
+                    searchResultCache.invalidate();
+                    logger.info("Task {} - Identical content already embedded, marked without calling FastAPI: {}", taskId, reusedIds);
+                    reusedIds.forEach(id -> report.accept(id, "embedded"));
+                }
+            }
+
+            // 3. Fan out to FastAPI, then flip the flag for each completed group in one UPDATE.
+            // Failures become outcomes too, so every report (store writes, SSE sends) happens
+            // after publishOn, never on the WebClient event loop
+            Flux.fromIterable(idsByStorageIdentifier.entrySet())
+                    .flatMap(entry -> callEmbeddingEndpoint(taskId, entry.getValue(), entry.getKey())
+                            .thenReturn(new GroupOutcome(entry.getValue(), null))
+                            .onErrorResume(e -> {
+                                String message = (e instanceof WebClientResponseException responseException)
+                                        ? "FastAPI embedding call failed with status " + responseException.getStatusCode()
+                                        : e.getMessage();
+                                return Mono.just(new GroupOutcome(entry.getValue(), message));
+                            }), embeddingConcurrency)
+                    // Flush a group when it is full or has waited long enough, so progress stays visible
+                    .bufferTimeout(updateBatchSize, updateMaxDelay)
+                    .publishOn(Schedulers.boundedElastic()) // JPA and the task store are blocking
+                    .doOnNext(outcomes -> {
+                        List<Long> embeddedIds = new ArrayList<>();
+                        for (GroupOutcome outcome : outcomes) {
+                            if (outcome.error() == null) {
+                                embeddedIds.addAll(outcome.ids());
+                            } else {
+                                logger.error("Task {} - Error during embedding request for file ID(s) {}: {}", taskId, outcome.ids(), outcome.error());
+                                outcome.ids().forEach(id -> report.accept(id, "error: " + outcome.error()));
+                            }
+                        }
+                        if (embeddedIds.isEmpty()) {
+                            return;
+                        }
+                        int updated = fileRepository.markEmbedded(embeddedIds);
+                        searchResultCache.invalidate(); // New content is searchable now
+                        logger.info("Task {} - Marked {} file(s) as embedded: {}", taskId, updated, embeddedIds);
+                        embeddedIds.forEach(id -> report.accept(id, "embedded"));
+                    })
+                    .blockLast();
+
+            String finalMessage = distinctIds.stream()
+                    .filter(id -> results.getOrDefault(id, "").startsWith("error"))
+                    .map(id -> "Error embedding ID " + id + ": " + results.get(id).substring("error: ".length()))
+                    .collect(Collectors.joining("; "));
+            String finalStatus = finalMessage.isEmpty() ? "COMPLETED" : "FAILED";
+
+            logger.info("Task {} - Embedding finished. Final Status: {}, Results: {}", taskId, finalStatus, results);
+            asyncTaskManager.updateTaskStatus(taskId, finalStatus, finalMessage.isEmpty() ? null : finalMessage, new HashMap<>(results));
+
+        } catch (Exception e) {
+            logger.error("Task {} - Unexpected error during embedding task: {}", taskId, e.getMessage(), e);
+            asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Unexpected error: " + e.getMessage(), new HashMap<>(results));
+        }
+    }
+
+    private Mono<Void> callEmbeddingEndpoint(String taskId, List<Long> ids, String storageIdentifier) {
+        return Mono.defer(() -> {
+            // FastAPI reads the file from the shared upload directory by its relative path
+            String relativePath = fileStorageService.resolveRelativePath(storageIdentifier);
+            logger.info("Task {} - Requesting embedding for file ID(s) {} (Path: {})", taskId, ids, relativePath);
+            Mono<Void> embeddingCall = fastapiWebClient.post()
+                    .uri(FASTAPI_EMBEDDING_ENDPOINT) // Use relative path
+                    .httpRequest(WebConfig.responseTimeout(fastApiClientProperties.getTimeout().getEmbedding()))
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(BodyInserters.fromValue(new EmbeddingRequest(relativePath)))
+                    .retrieve() // Non-2xx responses surface as WebClientResponseException
+                    .bodyToMono(Void.class); // We don't need the response body, just success status
+            // Waits while the embedding endpoint is saturated; fails at once while FastAPI is failing
+            return fastApiResilience.guardQueued(ResilienceConfig.EMBEDDING, embeddingCall);
+        });
+    }
+}
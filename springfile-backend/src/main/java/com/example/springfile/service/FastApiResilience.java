@@ -0,0 +1,61 @@
+package com.example.springfile.service;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Runs FastAPI calls through the circuit breaker and bulkhead of their endpoint
+ * (see {@link com.example.springfile.config.ResilienceConfig}).
+ * An open breaker fails the call at once with CallNotPermittedException; a full bulkhead fails
+ * an interactive call at once with BulkheadFullException, while a background call waits for a permit.
+ */
+@Component
+public class FastApiResilience {
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+
+    // How background calls wait for a free bulkhead permit
+    @Value("${fastapi.bulkhead.retry-interval:500ms}")
+    private Duration permitRetryInterval;
+    @Value("${fastapi.bulkhead.max-retries:240}")
+    private int permitMaxRetries;
+
+    @Autowired
+    public FastApiResilience(CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+    }
+
+    /**
+     * Guards an interactive call: it fails fast when the endpoint is saturated or its breaker is open.
+     * The call must be lazy (nothing is sent before subscription), as WebClient calls are.
+     */
+    public <T> Mono<T> guard(String endpoint, Mono<T> call) {
+        // The bulkhead is outermost, so rejected calls are not counted as FastAPI failures
+        return call
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreakerRegistry.circuitBreaker(endpoint)))
+                .transformDeferred(BulkheadOperator.of(bulkheadRegistry.bulkhead(endpoint)));
+    }
+
+    /**
+     * Guards a background call: while the endpoint is saturated it waits for a permit instead of
+     * failing, so a large job is throttled rather than failed. An open breaker still fails fast.
+     */
+    public <T> Mono<T> guardQueued(String endpoint, Mono<T> call) {
+        return guard(endpoint, call)
+                .retryWhen(Retry.fixedDelay(permitMaxRetries, permitRetryInterval)
+                        .filter(BulkheadFullException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+}
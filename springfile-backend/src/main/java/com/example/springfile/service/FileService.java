@@ -1,44 +1,83 @@
 package com.example.springfile.service;
 
+import com.example.springfile.config.AsyncConfig;
+import com.example.springfile.config.FastApiClientProperties;
+import com.example.springfile.config.ResilienceConfig;
+import com.example.springfile.config.WebConfig;
+import com.example.springfile.dto.CursorPageDto;
 import com.example.springfile.dto.FileDto; // Import DTO
+import com.example.springfile.dto.FileFilterDto;
+import com.example.springfile.dto.SearchChunkDto;
+import com.example.springfile.dto.SearchHitDto;
+import com.example.springfile.dto.SearchResponseDto;
+import com.example.springfile.model.BackgroundTask;
+import com.example.springfile.model.BlobTombstone;
 import com.example.springfile.model.Category;
 import com.example.springfile.model.File;
 import com.example.springfile.model.Subcategory;
+import com.example.springfile.repository.BlobTombstoneRepository;
 import com.example.springfile.repository.CategoryRepository;
 import com.example.springfile.repository.FileRepository;
 import com.example.springfile.repository.SubcategoryRepository;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.netty.handler.timeout.ReadTimeoutException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.JpaSort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.UUID; // Import UUID for task IDs
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.MultipartBodyBuilder;
-import org.springframework.util.StreamUtils;
 import org.springframework.http.HttpHeaders; // Import HttpHeaders
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import java.util.Collections; // Import Collections
+import java.util.Comparator;
 import com.fasterxml.jackson.databind.JsonNode; // Import JsonNode for handling FastAPI response
 import org.springframework.web.server.ResponseStatusException; // For specific exceptions
 import org.springframework.http.HttpStatus; // For status codes
@@ -55,37 +94,319 @@ public class FileService {
     private final FileStorageService fileStorageService;
     private final WebClient fastapiWebClient;
     private final AsyncTaskManager asyncTaskManager; // Added AsyncTaskManager
-
+    private final PreprocessingService preprocessingService;
+    private final EmbeddingService embeddingService;
+    private final Executor uploadExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final BlobTombstoneRepository blobTombstoneRepository;
+    private final BlobReclaimer blobReclaimer;
+    private final FastApiClientProperties fastApiClientProperties;
+    private final FastApiResilience fastApiResilience;
+    private final SearchResultCache searchResultCache;
+
+    // Status returned when the background executor's queue is full (429 or 503)
+    @Value("${async.background.rejection-status:503}")
+    private int taskRejectionStatus;
     // Constants for FastAPI interaction
-    private static final String DOCX_MIME_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-    private static final String FASTAPI_PREPROCESS_ENDPOINT = "/preprocess/docx/"; // Relative path for preprocessing
-    private static final String FASTAPI_EMBEDDING_ENDPOINT = "/embedding/"; // Relative path for embedding
     private static final String FASTAPI_SEARCH_ENDPOINT = "/search/"; // Relative path for search
 
+    // Sortable properties of the file listing, mapped to their JPQL paths
+    private static final Map<String, String> FILE_SORT_PROPERTIES = Map.of(
+            "id", "f.id",
+            "fileName", "f.fileName",
+            "fileType", "f.fileType",
+            "size", "f.size",
+            "uploadTimestamp", "f.uploadTimestamp",
+            "embedding", "f.embedding",
+            "categoryName", "c.name",
+            "subcategoryName", "s.name");
+
+    // Streamed (raw body) uploads
+    private static final int STREAM_UPLOAD_BUFFER_SIZE = 64 * 1024;
+    @Value("${file.upload.max-stream-size:10GB}")
+    private DataSize maxStreamUploadSize;
+
+    // Bulk delete: IDs per DELETE statement (and transaction)
+    @Value("${file.delete.chunk-size:500}")
+    private int deleteChunkSize;
+
+    // Constants for ZIP streaming
+    private static final int ZIP_COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> PRECOMPRESSED_EXTENSIONS = Set.of(
+            "pdf", "docx", "xlsx", "pptx", "png", "jpg", "jpeg", "gif", "webp",
+            "zip", "gz", "7z", "rar", "mp3", "mp4", "mov");
+
     @Autowired
     public FileService(FileRepository fileRepository,
                        CategoryRepository categoryRepository,
                        SubcategoryRepository subcategoryRepository,
                        FileStorageService fileStorageService,
                        WebClient fastapiWebClient,
-                       AsyncTaskManager asyncTaskManager) { // Added AsyncTaskManager
+                       AsyncTaskManager asyncTaskManager, // Added AsyncTaskManager
+                       PreprocessingService preprocessingService,
+                       EmbeddingService embeddingService,
+                       @Qualifier(AsyncConfig.UPLOAD_EXECUTOR) Executor uploadExecutor,
+                       PlatformTransactionManager transactionManager,
+                       BlobTombstoneRepository blobTombstoneRepository,
+                       BlobReclaimer blobReclaimer,
+                       SearchResultCache searchResultCache,
+                       FastApiClientProperties fastApiClientProperties,
+                       FastApiResilience fastApiResilience) {
         this.fileRepository = fileRepository;
         this.categoryRepository = categoryRepository;
         this.subcategoryRepository = subcategoryRepository;
         this.fileStorageService = fileStorageService;
         this.fastapiWebClient = fastapiWebClient;
         this.asyncTaskManager = asyncTaskManager; // Initialize AsyncTaskManager
+        this.preprocessingService = preprocessingService;
+        this.embeddingService = embeddingService;
+        this.uploadExecutor = uploadExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blobTombstoneRepository = blobTombstoneRepository;
+        this.blobReclaimer = blobReclaimer;
+        this.searchResultCache = searchResultCache;
+        this.fastApiClientProperties = fastApiClientProperties;
+        this.fastApiResilience = fastApiResilience;
     }
 
     @Transactional
     // Change subcategoryId to Long to allow null
     public File uploadFile(MultipartFile multipartFile, Long categoryId, Long subcategoryId) {
-        // 1. Validate Category
+        // 1. Validate Category and Subcategory
+        UploadTarget target = resolveUploadTarget(categoryId, subcategoryId);
+        Category category = target.category();
+        Subcategory subcategory = target.subcategory();
+
+        // 2. Store the file using FileStorageService (identical content reuses the existing blob)
+        StoredObject stored = fileStorageService.storeFile(multipartFile);
+
+        // 3. Create and save the File entity
+        String originalFileName = StringUtils.cleanPath(multipartFile.getOriginalFilename());
+        File file = new File();
+        file.setFileName(originalFileName);
+        file.setFileType(multipartFile.getContentType());
+        file.setSize(stored.size());
+        file.setStorageIdentifier(stored.storageIdentifier());
+        file.setCategory(category);
+        if (subcategory != null) { // Set subcategory only if it exists
+            file.setSubcategory(subcategory);
+        }
+        file.setUploadTimestamp(LocalDateTime.now()); // Set timestamp explicitly or rely on constructor
+
+        try {
+            return fileRepository.saveAndFlush(file); // Flush so a failed insert surfaces here
+        } catch (RuntimeException e) {
+            fileStorageService.releaseFile(stored.storageIdentifier()); // Reclaimed after rollback unless shared
+            throw e;
+        }
+    }
+
+    // Outcome of one file of a multi-file upload: the saved file, or the reason it was not saved
+    public record FileUploadOutcome(String fileName, File file, String error) {}
+
+    // Name a multi-file upload stores and reports for a file (the client's name, without path sequences)
+    public static String uploadFileName(MultipartFile multipartFile) {
+        return StringUtils.cleanPath(multipartFile.getOriginalFilename());
+    }
+
+    /**
+     * Uploads several files into the same category/subcategory.
+     * The target is validated once, the files are copied and hashed in parallel on the upload
+     * executor, and all File rows are inserted in one transaction with batched JDBC inserts.
+     * A file that cannot be read is reported on its own; a failure while saving the batch
+     * is reported for every file of the batch.
+     *
+     * @return One outcome per file, in the order of multipartFiles.
+     */
+    public List<FileUploadOutcome> uploadFiles(List<MultipartFile> multipartFiles, Long categoryId, Long subcategoryId) {
+        List<String> fileNames = multipartFiles.stream().map(FileService::uploadFileName).toList();
+        FileUploadOutcome[] outcomes = new FileUploadOutcome[multipartFiles.size()];
+
+        // 1. Validate Category and Subcategory once for the whole batch
+        UploadTarget target;
+        try {
+            target = resolveUploadTarget(categoryId, subcategoryId);
+        } catch (RuntimeException e) {
+            return fileNames.stream().map(fileName -> new FileUploadOutcome(fileName, null, e.getMessage())).toList();
+        }
+
+        // 2. Copy and hash the files in parallel
+        List<CompletableFuture<StagedFile>> staging = multipartFiles.stream()
+                .map(multipartFile -> CompletableFuture.supplyAsync(() -> fileStorageService.stageFile(multipartFile), uploadExecutor))
+                .toList();
+        List<Integer> stagedIndexes = new ArrayList<>();
+        List<StagedFile> stagedFiles = new ArrayList<>();
+        for (int i = 0; i < staging.size(); i++) {
+            try {
+                stagedFiles.add(staging.get(i).join());
+                stagedIndexes.add(i);
+            } catch (CompletionException e) {
+                logger.error("Error storing file '{}': {}", fileNames.get(i), e.getCause().getMessage(), e.getCause());
+                outcomes[i] = new FileUploadOutcome(fileNames.get(i), null, e.getCause().getMessage());
+            }
+        }
+
+        // 3. Place the blobs and insert all rows in one transaction
+        if (!stagedFiles.isEmpty()) {
+            try {
+                List<File> savedFiles = transactionTemplate.execute(txStatus -> {
+                    List<StoredObject> storedObjects = fileStorageService.placeStagedFiles(stagedFiles);
+                    List<File> files = new ArrayList<>();
+                    for (int j = 0; j < storedObjects.size(); j++) {
+                        MultipartFile multipartFile = multipartFiles.get(stagedIndexes.get(j));
+                        File file = new File();
+                        file.setFileName(fileNames.get(stagedIndexes.get(j)));
+                        file.setFileType(multipartFile.getContentType());
+                        file.setSize(storedObjects.get(j).size());
+                        file.setStorageIdentifier(storedObjects.get(j).storageIdentifier());
+                        file.setCategory(target.category());
+                        file.setSubcategory(target.subcategory());
+                        file.setUploadTimestamp(LocalDateTime.now());
+                        files.add(file);
+                    }
+                    try {
+                        List<File> saved = fileRepository.saveAll(files);
+                        fileRepository.flush(); // Batched INSERTs; a failure surfaces here
+                        return saved;
+                    } catch (RuntimeException e) {
+                        // Reclaimed after rollback unless shared
+                        storedObjects.forEach(stored -> fileStorageService.releaseFile(stored.storageIdentifier()));
+                        throw e;
+                    }
+                });
+                for (int j = 0; j < savedFiles.size(); j++) {
+                    int i = stagedIndexes.get(j);
+                    outcomes[i] = new FileUploadOutcome(fileNames.get(i), savedFiles.get(j), null);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error saving uploaded files {}: {}", stagedIndexes.stream().map(fileNames::get).toList(), e.getMessage(), e);
+                stagedIndexes.forEach(i -> outcomes[i] = new FileUploadOutcome(fileNames.get(i), null, e.getMessage()));
+            }
+        }
+        return List.of(outcomes);
+    }
+
+    /**
+     * Uploads a single file from a raw request body stream.
+     * The content is piped into a temporary file (no multipart spooling) while its size and
+     * SHA-256 are computed and its type is sniffed. This happens outside any transaction, so a
+     * slow upload does not hold a database connection; only placing the blob and inserting the
+     * row run in a short transaction.
+     *
+     * @param content The request body.
+     * @param originalFileName The client's file name.
+     * @param declaredContentType The Content-Type sent by the client (may be null).
+     * @param categoryId The category ID.
+     * @param subcategoryId The optional subcategory ID.
+     * @return The saved File entity.
+     * @throws ResponseStatusException (413) if the content exceeds file.upload.max-stream-size.
+     */
+    public File uploadFileStream(InputStream content, String originalFileName, String declaredContentType,
+                                 Long categoryId, Long subcategoryId) {
+        String cleanFileName = StringUtils.cleanPath(originalFileName);
+        UploadTarget target = resolveUploadTarget(categoryId, subcategoryId);
+
+        StagedFile staged;
+        String contentType;
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(
+                    new SizeLimitedInputStream(content, maxStreamUploadSize.toBytes()), STREAM_UPLOAD_BUFFER_SIZE);
+            // Peek at the first bytes for type detection without consuming them
+            buffered.mark(ContentTypeSniffer.SNIFF_LENGTH);
+            byte[] head = buffered.readNBytes(ContentTypeSniffer.SNIFF_LENGTH);
+            buffered.reset();
+            contentType = ContentTypeSniffer.sniff(head, declaredContentType, cleanFileName);
+            staged = fileStorageService.stageFile(buffered, cleanFileName);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not store file " + cleanFileName + ". Please try again!", e);
+        }
+
+        try {
+            return transactionTemplate.execute(txStatus -> {
+                StoredObject stored = fileStorageService.placeStagedFile(staged);
+                File file = new File();
+                file.setFileName(cleanFileName);
+                file.setFileType(contentType);
+                file.setSize(stored.size());
+                file.setStorageIdentifier(stored.storageIdentifier());
+                file.setCategory(target.category());
+                file.setSubcategory(target.subcategory());
+                file.setUploadTimestamp(LocalDateTime.now());
+                try {
+                    return fileRepository.saveAndFlush(file);
+                } catch (RuntimeException e) {
+                    fileStorageService.releaseFile(stored.storageIdentifier()); // Reclaimed after rollback unless shared
+                    throw e;
+                }
+            });
+        } finally {
+            fileStorageService.discardStagedFile(staged); // Only left over on dedup hits or failures
+        }
+    }
+
+    /**
+     * Creates the File for a fully assembled chunked upload. The assembled file is hashed and
+     * checked outside any transaction; a short transaction then inserts the row and moves the
+     * file into storage (no copy). Its type is sniffed from its first bytes.
+     * If anything fails, the assembled file is left where it was, so the upload can be completed again.
+     *
+     * @param partialFile The assembled partial file.
+     * @param expectedSha256 Digest announced by the client, or null to skip the check.
+     * @return The saved File entity.
+     * @throws ResponseStatusException (422) if the content does not match expectedSha256.
+     */
+    public File uploadAssembledFile(Path partialFile, String originalFileName, String declaredContentType,
+                                    String expectedSha256, Long categoryId, Long subcategoryId) {
+        String cleanFileName = StringUtils.cleanPath(originalFileName);
+        UploadTarget target = resolveUploadTarget(categoryId, subcategoryId);
+
+        String contentType;
+        try (InputStream head = Files.newInputStream(partialFile)) {
+            contentType = ContentTypeSniffer.sniff(head.readNBytes(ContentTypeSniffer.SNIFF_LENGTH), declaredContentType, cleanFileName);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read assembled upload " + cleanFileName, e);
+        }
+        StagedFile staged = fileStorageService.stageAssembledFile(partialFile, cleanFileName);
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(staged.sha256())) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Uploaded content does not match the announced SHA-256.");
+        }
+
+        return transactionTemplate.execute(txStatus -> {
+            File file = new File();
+            file.setFileName(cleanFileName);
+            file.setFileType(contentType);
+            file.setSize(staged.size());
+            file.setStorageIdentifier(staged.storageIdentifier());
+            file.setCategory(target.category());
+            file.setSubcategory(target.subcategory());
+            file.setUploadTimestamp(LocalDateTime.now());
+            File saved = fileRepository.saveAndFlush(file);
+            // Placed last: a failed insert rolls back before the assembled file has been moved
+            fileStorageService.placeStagedFile(staged);
+            return saved;
+        });
+    }
+
+    /**
+     * Checks that a category (and optional subcategory belonging to it) exist.
+     *
+     * @throws RuntimeException if they do not.
+     */
+    @Transactional(readOnly = true)
+    public void validateUploadTarget(Long categoryId, Long subcategoryId) {
+        resolveUploadTarget(categoryId, subcategoryId);
+    }
+
+    // Validated destination of an upload
+    private record UploadTarget(Category category, Subcategory subcategory) {}
+
+    private UploadTarget resolveUploadTarget(Long categoryId, Long subcategoryId) {
         Category category = categoryRepository.findById(categoryId)
                 .orElseThrow(() -> new RuntimeException("Category not found with id: " + categoryId));
 
         Subcategory subcategory = null; // Initialize as null
-        // 2. Validate Subcategory only if ID is provided
+        // Validate Subcategory only if ID is provided
         if (subcategoryId != null) {
             subcategory = subcategoryRepository.findById(subcategoryId)
                     .orElseThrow(() -> new RuntimeException("Subcategory not found with id: " + subcategoryId));
@@ -96,83 +417,229 @@ public class FileService {
                                            " does not belong to Category with id " + categoryId);
             }
         }
+        return new UploadTarget(category, subcategory);
+    }
 
-        // 2. Store the file using FileStorageService
-        String storageIdentifier = fileStorageService.storeFile(multipartFile);
+    /**
+     * Fails the read once more than maxBytes have been read, so an oversized streamed
+     * upload is aborted instead of filling the disk.
+     */
+    static final class SizeLimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
 
-        // 3. Create and save the File entity
-        String originalFileName = StringUtils.cleanPath(multipartFile.getOriginalFilename());
-        File file = new File();
-        file.setFileName(originalFileName);
-        file.setFileType(multipartFile.getContentType());
-        file.setSize(multipartFile.getSize());
-        file.setStorageIdentifier(storageIdentifier);
-        file.setCategory(category);
-        if (subcategory != null) { // Set subcategory only if it exists
-            file.setSubcategory(subcategory);
+        SizeLimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
         }
-        file.setUploadTimestamp(LocalDateTime.now()); // Set timestamp explicitly or rely on constructor
 
-        return fileRepository.save(file);
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(long n) {
+            count += n;
+            if (count > maxBytes) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "File exceeds the maximum upload size of " + maxBytes + " bytes.");
+            }
+        }
     }
 
     @Transactional(readOnly = true)
     public List<FileDto> getAllFiles() {
-        List<File> files = fileRepository.findAll();
-        return files.stream()
-                .map(this::mapToFileDto) // Use a helper method for mapping
-                .collect(Collectors.toList());
+        return fileRepository.findAllFileDtos(); // Single projection query, no N+1 on category/subcategory
     }
 
-    // Helper method to map File entity to FileDto
-    private FileDto mapToFileDto(File file) {
-        return new FileDto(
-                file.getId(),
-                file.getFileName(),
-                file.getFileType(),
-                file.getSize(),
-                file.getUploadTimestamp(),
-                file.getCategory() != null ? file.getCategory().getName() : null, // Safely get names
-                file.getSubcategory() != null ? file.getSubcategory().getName() : null,
-                file.isEmbedding() // Add embedding status
-        );
+    /**
+     * Retrieves one page of files matching the given filters.
+     * Backed by a single projection query plus a count query.
+     *
+     * @param filter Optional filters; null fields are ignored.
+     * @param pageable Page number, size and sort (see {@link #FILE_SORT_PROPERTIES}).
+     * @return A page of FileDto objects.
+     * @throws ResponseStatusException (400) if sorting by an unsupported property.
+     */
+    @Transactional(readOnly = true)
+    public Page<FileDto> getFiles(FileFilterDto filter, Pageable pageable) {
+        Pageable translated = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), toQuerySort(pageable.getSort()));
+        return fileRepository.findFileDtos(
+                filter.getCategoryId(),
+                filter.getSubcategoryId(),
+                StringUtils.hasText(filter.getFileType()) ? filter.getFileType() : null,
+                filter.getEmbedding(),
+                filter.getUploadedFrom(),
+                filter.getUploadedTo(),
+                translated);
     }
 
-    @Transactional
+    /**
+     * Retrieves one slice of files using keyset pagination on (uploadTimestamp, id), newest first.
+     * Each slice is a single index seek, so response time does not depend on how deep the client
+     * has scrolled.
+     *
+     * @param filter Optional filters; null fields are ignored.
+     * @param cursor Opaque cursor from a previous slice, or null for the first slice.
+     * @param size Maximum number of items in the slice.
+     * @return The slice with cursors for the next (older) and previous (newer) slices.
+     * @throws ResponseStatusException (400) if the cursor is malformed.
+     */
+    @Transactional(readOnly = true)
+    public CursorPageDto<FileDto> getFilesByCursor(FileFilterDto filter, String cursor, int size) {
+        String fileType = StringUtils.hasText(filter.getFileType()) ? filter.getFileType() : null;
+        Limit limit = Limit.of(size + 1); // One extra row tells us whether there is more in that direction
+
+        // Within a category, dedicated queries seek on the (category, uploadTimestamp, id) index
+        boolean inCategory = filter.getCategoryId() != null;
+
+        if (cursor == null || cursor.isBlank()) {
+            List<FileDto> rows = inCategory
+                    ? fileRepository.findFirstFileDtosInCategory(filter.getCategoryId(), filter.getSubcategoryId(),
+                            fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(), limit)
+                    : fileRepository.findFirstFileDtos(null, filter.getSubcategoryId(),
+                            fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(), limit);
+            List<FileDto> items = rows.subList(0, Math.min(size, rows.size()));
+            String next = rows.size() > size ? FileCursor.encode(FileCursor.NEXT, items.get(items.size() - 1)) : null;
+            return new CursorPageDto<>(items, next, null);
+        }
+
+        FileCursor key = FileCursor.decode(cursor);
+        if (FileCursor.NEXT.equals(key.direction())) {
+            List<FileDto> rows = inCategory
+                    ? fileRepository.findFileDtosInCategoryBefore(filter.getCategoryId(), filter.getSubcategoryId(),
+                            fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(),
+                            key.uploadTimestamp(), key.id(), limit)
+                    : fileRepository.findFileDtosBefore(null, filter.getSubcategoryId(),
+                            fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(),
+                            key.uploadTimestamp(), key.id(), limit);
+            List<FileDto> items = rows.subList(0, Math.min(size, rows.size()));
+            String next = rows.size() > size ? FileCursor.encode(FileCursor.NEXT, items.get(items.size() - 1)) : null;
+            String prev = items.isEmpty() ? null : FileCursor.encode(FileCursor.PREV, items.get(0));
+            return new CursorPageDto<>(items, next, prev);
+        }
+
+        // Walking back towards newer files: fetch ascending from the key, then flip to display order
+        List<FileDto> rows = inCategory
+                ? fileRepository.findFileDtosInCategoryAfter(filter.getCategoryId(), filter.getSubcategoryId(),
+                        fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(),
+                        key.uploadTimestamp(), key.id(), limit)
+                : fileRepository.findFileDtosAfter(null, filter.getSubcategoryId(),
+                        fileType, filter.getEmbedding(), filter.getUploadedFrom(), filter.getUploadedTo(),
+                        key.uploadTimestamp(), key.id(), limit);
+        List<FileDto> items = new ArrayList<>(rows.subList(0, Math.min(size, rows.size())));
+        Collections.reverse(items);
+        String prev = rows.size() > size ? FileCursor.encode(FileCursor.PREV, items.get(0)) : null;
+        String next = items.isEmpty() ? null : FileCursor.encode(FileCursor.NEXT, items.get(items.size() - 1));
+        return new CursorPageDto<>(items, next, prev);
+    }
+
+    /**
+     * Keyset position encoded as an opaque, URL-safe token: direction, upload timestamp and id.
+     */
+    record FileCursor(String direction, LocalDateTime uploadTimestamp, Long id) {
+        static final String NEXT = "n";
+        static final String PREV = "p";
+
+        static String encode(String direction, FileDto file) {
+            String raw = direction + "|" + file.getUploadTimestamp() + "|" + file.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static FileCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = raw.split("\\|");
+                if (parts.length != 3 || !(NEXT.equals(parts[0]) || PREV.equals(parts[0]))) {
+                    throw new IllegalArgumentException("unexpected cursor layout");
+                }
+                return new FileCursor(parts[0], LocalDateTime.parse(parts[1]), Long.parseLong(parts[2]));
+            } catch (RuntimeException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor.", e);
+            }
+        }
+    }
+
+    // Maps API sort properties onto query aliases; anything else is rejected rather than passed into JPQL
+    private Sort toQuerySort(Sort sort) {
+        Sort querySort = Sort.unsorted();
+        for (Sort.Order order : sort) {
+            String path = FILE_SORT_PROPERTIES.get(order.getProperty());
+            if (path == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Unsupported sort property '" + order.getProperty() + "'. Allowed: " + FILE_SORT_PROPERTIES.keySet());
+            }
+            querySort = querySort.and(JpaSort.unsafe(order.getDirection(), path));
+        }
+        // Tie-break on id so pages are stable when the sort key has duplicates
+        return querySort.and(JpaSort.unsafe(Sort.Direction.DESC, "f.id"));
+    }
+
+    /**
+     * Deletes files with one set-based DELETE per chunk of IDs and returns without touching the disk.
+     * Each chunk records a tombstone per affected blob in the same transaction; the BlobReclaimer
+     * then removes the blobs that are no longer referenced in the background.
+     *
+     * @return Per-file status: "deleted", "File not found in database" or an error message.
+     */
     public Map<Long, String> deleteFiles(List<Long> fileIds) {
         Map<Long, String> results = new HashMap<>();
-        for (Long id : fileIds) {
+        List<Long> distinctIds = fileIds.stream().distinct().toList();
+        int deletedCount = 0;
+        for (int from = 0; from < distinctIds.size(); from += deleteChunkSize) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + deleteChunkSize, distinctIds.size()));
             try {
-                Optional<File> fileOptional = fileRepository.findById(id);
-                if (fileOptional.isPresent()) {
-                    File file = fileOptional.get();
-                    String storageIdentifier = file.getStorageIdentifier();
-
-                    // 1. Attempt to delete physical file
-                    try {
-                        fileStorageService.deleteFile(storageIdentifier);
-                        logger.info("Successfully deleted physical file with storage identifier: {}", storageIdentifier);
-                    } catch (Exception e) {
-                        // Log the error but proceed to delete DB record if desired,
-                        // or handle differently (e.g., mark as orphaned)
-                        logger.error("Failed to delete physical file with storage identifier {}: {}", storageIdentifier, e.getMessage(), e);
-                        // Depending on requirements, you might want to stop here or just log
-                        // results.put(id, "Failed to delete physical file: " + e.getMessage());
-                        // continue; // Skip DB deletion if physical deletion fails? Decide based on requirements.
+                Set<Long> deletedIds = transactionTemplate.execute(txStatus -> {
+                    List<FileRepository.StorageReference> references = fileRepository.findByIdIn(chunk);
+                    if (references.isEmpty()) {
+                        return Set.<Long>of();
+                    }
+                    blobTombstoneRepository.saveAll(references.stream()
+                            .map(FileRepository.StorageReference::getStorageIdentifier)
+                            .distinct()
+                            .map(BlobTombstone::new)
+                            .toList());
+                    Set<Long> ids = references.stream().map(FileRepository.StorageReference::getId).collect(Collectors.toSet());
+                    fileRepository.deleteByIds(ids);
+                    if (references.stream().anyMatch(FileRepository.StorageReference::isEmbedding)) {
+                        searchResultCache.invalidate(); // Cached results may point at these files
+                    }
+                    return ids;
+                });
+                for (Long id : chunk) {
+                    if (deletedIds.contains(id)) {
+                        results.put(id, "deleted");
+                    } else {
+                        logger.warn("File not found in database with ID: {}", id);
+                        results.put(id, "File not found in database");
                     }
-
-                    // 2. Delete database record
-                    fileRepository.deleteById(id);
-                    logger.info("Successfully deleted database record for file ID: {}", id);
-                    results.put(id, "deleted");
-
-                } else {
-                    logger.warn("File not found in database with ID: {}", id);
-                    results.put(id, "File not found in database");
                 }
-            } catch (Exception e) {
-                logger.error("Error deleting file with ID {}: {}", id, e.getMessage(), e);
-                results.put(id, "Error during deletion: " + e.getMessage());
+                deletedCount += deletedIds.size();
+            } catch (RuntimeException e) {
+                logger.error("Error deleting file IDs {}..{}: {}", chunk.get(0), chunk.get(chunk.size() - 1), e.getMessage(), e);
+                chunk.forEach(id -> results.put(id, "Error during deletion: " + e.getMessage()));
+            }
+        }
+        logger.info("Deleted {} of {} requested file record(s)", deletedCount, distinctIds.size());
+
+        if (deletedCount > 0) {
+            try {
+                blobReclaimer.reclaimAsync();
+            } catch (TaskRejectedException e) {
+                logger.info("Background executor busy; stored files will be reclaimed by the next scheduled run");
             }
         }
         return results;
@@ -195,60 +662,139 @@ public class FileService {
         fileData.put("resource", resource);
         fileData.put("fileName", file.getFileName());
         fileData.put("fileType", file.getFileType()); // Include file type
+
+        // Validators for conditional requests, taken from the stored object itself
+        try {
+            long lastModified = resource.lastModified();
+            long contentLength = resource.contentLength();
+            String validatorSource = file.getStorageIdentifier() + ":" + contentLength + ":" + lastModified;
+            fileData.put("etag", "\"" + DigestUtils.md5DigestAsHex(validatorSource.getBytes(StandardCharsets.UTF_8)) + "\"");
+            fileData.put("lastModified", lastModified);
+        } catch (IOException e) {
+            // Still serve the file, just without validators
+            logger.warn("Could not read attributes of stored file for ID {}: {}", fileId, e.getMessage());
+        }
         return fileData;
     }
 
-    @Transactional(readOnly = true) // Read-only as we are just reading files
-    public Resource createZipArchiveForFiles(List<Long> fileIds) {
-        logger.info("Starting creation of ZIP archive for file IDs: {}", fileIds);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            byte[] buffer = new byte[1024]; // Buffer for copying data
+    /**
+     * Describes a single entry of a batch ZIP download.
+     * Resolved up front so the archive can be streamed outside of any transaction.
+     */
+    public record ZipEntrySource(Long fileId, String fileName, String storageIdentifier) {}
+
+    /**
+     * Looks up the files to include in a batch ZIP download with a single query.
+     * Missing IDs are logged and skipped; the requested order is preserved.
+     *
+     * @param fileIds List of file IDs to include in the archive.
+     * @return The entries to write, in request order.
+     */
+    @Transactional(readOnly = true)
+    public List<ZipEntrySource> resolveZipEntries(List<Long> fileIds) {
+        Map<Long, File> filesById = fileRepository.findAllById(fileIds).stream()
+                .collect(Collectors.toMap(File::getId, file -> file));
+
+        List<ZipEntrySource> entries = new ArrayList<>(fileIds.size());
+        for (Long fileId : fileIds) {
+            File file = filesById.get(fileId);
+            if (file == null) {
+                logger.warn("File record not found in database for ID: {}. Skipping.", fileId);
+                continue;
+            }
+            entries.add(new ZipEntrySource(file.getId(), file.getFileName(), file.getStorageIdentifier()));
+        }
+        return entries;
+    }
+
+    /**
+     * Streams a ZIP archive of the given entries straight to the output stream.
+     * Each entry is copied through a single fixed-size buffer, so memory use does not
+     * grow with the archive. Already-compressed formats (PDF, Office, images, archives)
+     * are STORED instead of DEFLATED to avoid spending CPU compressing them again.
+     *
+     * @param entries The entries to write, as returned by {@link #resolveZipEntries(List)}.
+     * @param outputStream The stream to write the archive to (typically the HTTP response body).
+     * @throws IOException if writing to the output stream fails (e.g., the client disconnected).
+     */
+    public void writeZipArchive(List<ZipEntrySource> entries, OutputStream outputStream) throws IOException {
+        logger.info("Starting streaming of ZIP archive with {} entries", entries.size());
+        byte[] buffer = new byte[ZIP_COPY_BUFFER_SIZE];
+        Set<String> usedEntryNames = new HashSet<>();
+
+        ZipOutputStream zos = new ZipOutputStream(outputStream);
+        for (ZipEntrySource source : entries) {
+            Path path;
+            try {
+                Resource resource = fileStorageService.loadFileAsResource(source.storageIdentifier());
+                if (!resource.isReadable()) {
+                    logger.warn("Resource not readable for file ID: {}, Name: {}", source.fileId(), source.fileName());
+                    continue;
+                }
+                path = resource.getFile().toPath();
+            } catch (Exception e) {
+                // Log error for this specific file but continue with others
+                logger.error("Error resolving file ID {} for ZIP archive: {}", source.fileId(), e.getMessage());
+                continue;
+            }
 
-            for (Long fileId : fileIds) {
-                try {
-                    Optional<File> fileOptional = fileRepository.findById(fileId);
-                    if (fileOptional.isPresent()) {
-                        File file = fileOptional.get();
-                        logger.debug("Adding file to ZIP: ID={}, Name={}", fileId, file.getFileName());
-                        Resource resource = fileStorageService.loadFileAsResource(file.getStorageIdentifier());
-
-                        if (resource.exists() && resource.isReadable()) {
-                            ZipEntry zipEntry = new ZipEntry(file.getFileName()); // Use original filename
-                            zos.putNextEntry(zipEntry);
-
-                            try (InputStream inputStream = resource.getInputStream()) {
-                                StreamUtils.copy(inputStream, zos); // Efficiently copy stream
-                            }
-                            zos.closeEntry();
-                            logger.debug("Successfully added file to ZIP: {}", file.getFileName());
-                        } else {
-                            logger.warn("Resource not found or not readable for file ID: {}, Name: {}", fileId, file.getFileName());
-                            // Optionally, add a placeholder entry or skip
-                        }
-                    } else {
-                        logger.warn("File record not found in database for ID: {}. Skipping.", fileId);
-                        // Optionally, add a note in the ZIP or just skip
+            ZipEntry zipEntry = new ZipEntry(uniqueEntryName(source.fileName(), usedEntryNames));
+            if (isAlreadyCompressed(source.fileName())) {
+                // STORED entries need size and CRC before the data, so checksum the file first
+                long size = Files.size(path);
+                CRC32 crc = new CRC32();
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    int read;
+                    while ((read = inputStream.read(buffer)) != -1) {
+                        crc.update(buffer, 0, read);
                     }
-                } catch (Exception e) {
-                    // Log error for this specific file but continue with others
-                    logger.error("Error processing file ID {} for ZIP archive: {}", fileId, e.getMessage(), e);
-                    // Optionally, add an error marker entry in the ZIP
                 }
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(size);
+                zipEntry.setCompressedSize(size);
+                zipEntry.setCrc(crc.getValue());
+            } else {
+                zipEntry.setMethod(ZipEntry.DEFLATED);
             }
-            // No need to explicitly finish zos here, try-with-resources handles it
 
-        } catch (IOException e) {
-            logger.error("IOException during ZIP archive creation for file IDs {}: {}", fileIds, e.getMessage(), e);
-            // Throw a runtime exception to indicate failure
-            throw new RuntimeException("Failed to create ZIP archive due to IO error", e);
-        } catch (Exception e) {
-             logger.error("Unexpected error during ZIP archive creation for file IDs {}: {}", fileIds, e.getMessage(), e);
-             throw new RuntimeException("Unexpected error creating ZIP archive", e);
+            zos.putNextEntry(zipEntry);
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    zos.write(buffer, 0, read);
+                }
+            }
+            zos.closeEntry();
+            logger.debug("Streamed file to ZIP: ID={}, Name={}, Method={}", source.fileId(), zipEntry.getName(),
+                    zipEntry.getMethod() == ZipEntry.STORED ? "STORED" : "DEFLATED");
         }
+        // Writes the central directory; the response stream itself is closed by the container
+        zos.finish();
+        zos.flush();
+        logger.info("Finished streaming ZIP archive with {} entries", entries.size());
+    }
 
-        logger.info("Successfully created ZIP archive in memory for file IDs: {}", fileIds);
-        return new ByteArrayResource(baos.toByteArray());
+    // Checks the extension against formats that are already compressed internally
+    private boolean isAlreadyCompressed(String fileName) {
+        if (fileName == null) {
+            return false;
+        }
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex >= 0 && PRECOMPRESSED_EXTENSIONS.contains(fileName.substring(dotIndex + 1).toLowerCase());
+    }
+
+    // ZIP entry names must be unique, so suffix duplicates like "report (1).pdf"
+    private String uniqueEntryName(String fileName, Set<String> usedEntryNames) {
+        String candidate = fileName;
+        int counter = 1;
+        while (!usedEntryNames.add(candidate)) {
+            int dotIndex = fileName.lastIndexOf('.');
+            candidate = dotIndex > 0
+                    ? fileName.substring(0, dotIndex) + " (" + counter + ")" + fileName.substring(dotIndex)
+                    : fileName + " (" + counter + ")";
+            counter++;
+        }
+        return candidate;
     }
 
     // --- Preprocessing Logic (Now Asynchronous) ---
@@ -261,263 +807,158 @@ public class FileService {
     public String startPreprocessingTask(List<Long> fileIds) {
         String taskId = UUID.randomUUID().toString();
         logger.info("Registering preprocessing task with ID: {} for file IDs: {}", taskId, fileIds);
-        asyncTaskManager.registerTask(taskId, "PROCESSING"); // Initial status
-        // Call the actual async method
-        preprocessFilesAsync(fileIds, taskId);
+        asyncTaskManager.registerTask(taskId, BackgroundTask.TYPE_PREPROCESS, fileIds); // Stored, so it survives a restart
+        // Goes through the @Async proxy, so the batch runs on the background executor
+        submitBackgroundTask(taskId, () -> preprocessingService.preprocessFilesAsync(fileIds, taskId));
         return taskId;
     }
 
-    @Async // Mark this method to run asynchronously
-    @Transactional // Keep transactional for database operations within the async method
-    public void preprocessFilesAsync(List<Long> fileIds, String taskId) {
-        Map<Long, String> results = new HashMap<>();
-        logger.info("Task {} - Starting async preprocessing for file IDs: {}", taskId, fileIds);
-        String finalStatus = "COMPLETED"; // Assume success initially
-        String finalMessage = null;
-
+    // Hands a registered task to the background executor, translating a full queue into 503/429
+    private void submitBackgroundTask(String taskId, Runnable submission) {
         try {
-            for (Long id : fileIds) {
-                String fileStatus; // Renamed from 'status' to avoid conflict
-            try {
-                Optional<File> fileOptional = fileRepository.findById(id);
-                if (fileOptional.isEmpty()) {
-                    logger.warn("Task {} - Preprocessing skipped: File not found for ID {}", taskId, id);
-                    fileStatus = "not_found";
-                    results.put(id, fileStatus);
-                    continue;
-                }
-
-                File file = fileOptional.get();
-                String originalFileName = file.getFileName();
-                String fileType = file.getFileType();
-
-                // Check if it's a DOCX file
-                boolean isDocx = originalFileName != null && originalFileName.toLowerCase().endsWith(".docx");
-                // Optional stricter check: && (DOCX_MIME_TYPE.equals(fileType) || fileType == null || fileType.isBlank());
-
-                if (!isDocx) {
-                    logger.info("Task {} - Preprocessing skipped: File ID {} ({}) is not a DOCX file.", taskId, id, originalFileName);
-                    fileStatus = "not_docx";
-                    results.put(id, fileStatus);
-                    continue;
-                }
-
-                logger.info("Task {} - Preprocessing file ID {} ({}). Loading resource...", taskId, id, originalFileName);
-                Resource originalResource = fileStorageService.loadFileAsResource(file.getStorageIdentifier());
-
-                if (!originalResource.exists() || !originalResource.isReadable()) {
-                    logger.error("Task {} - Preprocessing failed: Cannot read original file resource for ID {}", taskId, id);
-                    fileStatus = "error: cannot read original file";
-                    results.put(id, fileStatus);
-                    finalStatus = "FAILED"; // Mark overall task as failed if any file fails critically
-                    finalMessage = "Failed to read original file for ID " + id;
-                    continue; // Continue to next file ID
-                }
-
-                // Prepare request for FastAPI
-                MultipartBodyBuilder bodyBuilder = new MultipartBodyBuilder();
-                // Pass the resource directly. WebClient handles streaming.
-                // Ensure the filename is passed correctly for FastAPI to read it.
-                bodyBuilder.part("file", originalResource).filename(originalFileName);
-
-                logger.info("Task {} - Calling FastAPI to preprocess file ID {}", taskId, id);
-                // Call FastAPI service and block for the result (within the loop)
-                // Consider if parallel calls are needed for performance with many files.
-                Resource processedResource = fastapiWebClient.post()
-                        .uri(FASTAPI_PREPROCESS_ENDPOINT)
-                        .contentType(MediaType.MULTIPART_FORM_DATA)
-                        .body(BodyInserters.fromMultipartData(bodyBuilder.build()))
-                        .retrieve()
-                        // Handle potential errors from FastAPI
-                        .onStatus(httpStatus -> httpStatus.is4xxClientError() || httpStatus.is5xxServerError(), // Renamed lambda param
-                                  clientResponse -> clientResponse.bodyToMono(String.class)
-                                .flatMap(errorBody -> Mono.error(new RuntimeException("FastAPI error: " + clientResponse.statusCode() + " - " + errorBody))))
-                        .bodyToMono(Resource.class)
-                        .block(); // Blocking here simplifies logic but processes files sequentially.
-
-                if (processedResource != null) {
-                    logger.info("Task {} - Received processed resource from FastAPI for file ID {}", taskId, id);
-                    // Store the processed content as a NEW file
-                    String newStorageIdentifier = fileStorageService.storeFile(processedResource, originalFileName);
-
-                    // Create a new File entity for the processed file
-                    File processedFile = new File();
-                    String processedFileName = originalFileName.replaceFirst("(?i)\\.docx$", "_processed.docx");
-                    if (processedFileName.equals(originalFileName)) { // Handle case where extension wasn't found or name didn't end with .docx
-                        processedFileName = originalFileName + "_processed";
-                    }
-                    processedFile.setFileName(processedFileName);
-                    processedFile.setStorageIdentifier(newStorageIdentifier);
-                    processedFile.setFileType(DOCX_MIME_TYPE); // Assume it's still DOCX
-                    // Try to get size, handle potential exception
-                    try {
-                        processedFile.setSize(processedResource.contentLength());
-                    } catch (IOException e) {
-                        logger.warn("Task {} - Could not determine size of processed resource for original file ID {}: {}", taskId, id, e.getMessage());
-                        processedFile.setSize(-1L); // Indicate unknown size
-                    }
-                    processedFile.setCategory(file.getCategory());
-                    processedFile.setSubcategory(file.getSubcategory()); // Copy subcategory from original
-                    processedFile.setUploadTimestamp(LocalDateTime.now()); // Set new timestamp
-
-                    fileRepository.save(processedFile);
-
-                    logger.info("Task {} - Successfully processed file ID {} and saved as new file with ID {} and storage ID {}",
-                            taskId, id, processedFile.getId(), newStorageIdentifier);
-                    fileStatus = "processed_new_file_id=" + processedFile.getId();
-                } else {
-                    logger.error("Task {} - Preprocessing failed: No processed resource received from FastAPI for file ID {}", taskId, id);
-                    fileStatus = "error: no processed data received";
-                    finalStatus = "FAILED"; // Mark overall task as failed
-                    finalMessage = (finalMessage == null ? "" : finalMessage + "; ") + "No processed data for ID " + id;
-                }
-
-            } catch (Exception e) {
-                logger.error("Task {} - Preprocessing failed for file ID {}: {}", taskId, id, e.getMessage(), e);
-                fileStatus = "error: " + e.getMessage();
-                finalStatus = "FAILED"; // Mark overall task as failed
-                finalMessage = (finalMessage == null ? "" : finalMessage + "; ") + "Error processing ID " + id + ": " + e.getMessage();
-            }
-            results.put(id, fileStatus);
-        } // End of loop through fileIds
-
-        // Update the final task status
-        logger.info("Task {} - Async preprocessing finished. Final Status: {}, Results: {}", taskId, finalStatus, results);
-        asyncTaskManager.updateTaskStatus(taskId, finalStatus, finalMessage, results);
-
-    } catch (Exception e) {
-        // Catch unexpected errors during the async execution
-        logger.error("Task {} - Unexpected error during async preprocessing task: {}", taskId, e.getMessage(), e);
-        asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Unexpected error: " + e.getMessage(), results);
-    }
+            submission.run();
+        } catch (TaskRejectedException e) {
+            logger.warn("Task {} rejected, background executor is saturated: {}", taskId, e.getMessage());
+            asyncTaskManager.removeTask(taskId);
+            throw new ResponseStatusException(HttpStatus.valueOf(taskRejectionStatus),
+                    "Too many background tasks are queued. Please retry later.");
+        }
     }
 
     // --- Embedding Logic ---
 
-    // Simple record for the FastAPI embedding request payload
-    private record EmbeddingRequest(String file_path) {}
-
     /**
-     * Requests embedding generation from the FastAPI service for the given file IDs.
-     * Updates the embedding status of the file in the database upon success.
-     * Note: This implementation processes files sequentially using the injected WebClient.
-     * Consider making it fully asynchronous using reactive chains if performance is critical.
-     *
-     * @param fileIds List of file IDs to request embedding for.
+     * Initiates an asynchronous embedding job for the given files.
+     * @param fileIds List of file IDs to embed.
+     * @return The unique taskId for tracking this asynchronous operation.
      */
-    @Transactional
-    public void requestEmbeddings(List<Long> fileIds) {
-        logger.info("Starting embedding request process for file IDs: {}", fileIds);
-
-        for (Long id : fileIds) {
-            try {
-                Optional<File> fileOptional = fileRepository.findById(id);
-                if (fileOptional.isEmpty()) {
-                    logger.warn("Embedding request skipped: File not found for ID {}", id);
-                    continue; // Skip to the next ID
-                }
-
-                File file = fileOptional.get();
+    public String startEmbeddingTask(List<Long> fileIds) {
+        String taskId = UUID.randomUUID().toString();
+        logger.info("Registering embedding task with ID: {} for file IDs: {}", taskId, fileIds);
+        asyncTaskManager.registerTask(taskId, BackgroundTask.TYPE_EMBEDDING, fileIds);
+        submitBackgroundTask(taskId, () -> embeddingService.requestEmbeddingsAsync(fileIds, taskId));
+        return taskId;
+    }
 
-                // Removed check for existing embedding status
+    // --- Search Logic ---
 
-                String storageIdentifier = file.getStorageIdentifier();
-                if (storageIdentifier == null || storageIdentifier.isBlank()) {
-                     logger.warn("Embedding request skipped: File ID {} has no valid storage identifier.", id);
-                     continue;
-                }
+    // Simple record for the FastAPI search request payload
+    private record SearchRequest(String query, int n_results) {}
 
-                logger.info("Requesting embedding for file ID {} (Path: {})", id, storageIdentifier);
-
-                EmbeddingRequest payload = new EmbeddingRequest(storageIdentifier);
-
-                // Use the injected fastapiWebClient bean
-                fastapiWebClient.post()
-                        .uri(FASTAPI_EMBEDDING_ENDPOINT) // Use relative path
-                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                        .body(BodyInserters.fromValue(payload))
-                        .retrieve()
-                        // Check for successful response (e.g., 2xx)
-                        .onStatus(httpStatus -> !httpStatus.is2xxSuccessful(),
-                                  clientResponse -> clientResponse.bodyToMono(String.class)
-                                        .flatMap(errorBody -> {
-                                            logger.error("FastAPI embedding error for file ID {}: {} - {}", id, clientResponse.statusCode(), errorBody);
-                                            // Create an error specific to this failure
-                                            return Mono.error(new RuntimeException("FastAPI embedding call failed for file ID " + id + " with status " + clientResponse.statusCode()));
-                                        }))
-                        .bodyToMono(Void.class) // We don't need the response body, just success status
-                        .block(); // Block for simplicity in this loop
-
-                // If block() completes without error, the call was successful
-                logger.info("Successfully received embedding confirmation from FastAPI for file ID {}", id);
-                file.setEmbedding(true);
-                fileRepository.save(file);
-                logger.info("Updated embedding status to true for file ID {}", id);
+    /**
+     * Searches the embedded documents and returns the matching files, best first.
+     * Each chunk's source (the path FastAPI indexed) is resolved to the files stored under it with
+     * one IN query; a file's chunks are grouped and ranked by their best (lowest) distance.
+     * Chunks whose file no longer exists are dropped.
+     *
+     * @param query The search query string.
+     * @param nResults The maximum number of chunks to retrieve.
+     * @return The results grouped per file; fails with ResponseStatusException if the FastAPI
+     *         call fails or returns an error status.
+     */
+    public Mono<SearchResponseDto> searchFiles(String query, int nResults) {
+        return searchEmbeddings(query, nResults)
+                .publishOn(Schedulers.boundedElastic()) // The file lookup is blocking JPA
+                .map(response -> toSearchResponse(query, response))
+                .defaultIfEmpty(new SearchResponseDto(query, List.of()));
+    }
 
-            } catch (Exception e) {
-                // Log error for this specific file but continue processing others
-                logger.error("Error during embedding request process for file ID {}: {}", id, e.getMessage(), e);
-                // Avoid re-throwing here to allow processing of subsequent IDs
+    private SearchResponseDto toSearchResponse(String query, JsonNode response) {
+        // Chunks by storage identifier, the last segment of the indexed source path
+        Map<String, List<SearchChunkDto>> chunksByStorageIdentifier = new LinkedHashMap<>();
+        for (JsonNode result : response.path("results")) {
+            String source = result.path("metadata").path("source").asText("");
+            if (source.isBlank()) {
+                continue;
+            }
+            String storageIdentifier = source.substring(Math.max(source.lastIndexOf('/'), source.lastIndexOf('\\')) + 1);
+            JsonNode distance = result.path("distance");
+            JsonNode chunkIndex = result.path("metadata").path("chunk_index");
+            chunksByStorageIdentifier.computeIfAbsent(storageIdentifier, key -> new ArrayList<>()).add(new SearchChunkDto(
+                    result.path("id").asText(null),
+                    distance.isNumber() ? distance.asDouble() : null,
+                    chunkIndex.isNumber() ? chunkIndex.asInt() : null,
+                    result.path("document").asText(null)));
+        }
+        Comparator<Double> bestFirst = Comparator.nullsLast(Comparator.naturalOrder());
+        chunksByStorageIdentifier.values().forEach(chunks -> chunks.sort(Comparator.comparing(SearchChunkDto::getDistance, bestFirst)));
+
+        List<SearchHitDto> hits = new ArrayList<>();
+        if (!chunksByStorageIdentifier.isEmpty()) {
+            for (Object[] row : fileRepository.findFileDtosByStorageIdentifiers(chunksByStorageIdentifier.keySet())) {
+                List<SearchChunkDto> chunks = chunksByStorageIdentifier.get((String) row[0]);
+                hits.add(new SearchHitDto((FileDto) row[1], chunks.get(0).getDistance(), chunks));
             }
         }
-        logger.info("Finished embedding request process for file IDs: {}", fileIds);
+        hits.sort(Comparator.comparing(SearchHitDto::getBestDistance, bestFirst)
+                .thenComparing(hit -> hit.getFile().getId()));
+        return new SearchResponseDto(query, hits);
     }
 
-    // --- Search Logic ---
-
-    // Simple record for the FastAPI search request payload
-    private record SearchRequest(String query, int n_results) {}
-
     /**
      * Performs a similarity search by calling the FastAPI /search/ endpoint.
+     * Responses are cached by normalized query and result count until the embedded files change.
      *
      * @param query The search query string.
      * @param nResults The maximum number of results to return.
-     * @return JsonNode representing the search results from FastAPI.
-     * @throws ResponseStatusException if the FastAPI call fails or returns an error status.
+     * @return The search results from FastAPI; fails with ResponseStatusException if the FastAPI
+     *         call fails or returns an error status.
      */
-    public JsonNode searchEmbeddings(String query, int nResults) {
+    public Mono<JsonNode> searchEmbeddings(String query, int nResults) {
         logger.info("Initiating search request to FastAPI. Query: '{}', n_results: {}", query, nResults);
 
         // Ensure nResults has a sensible default if not provided correctly (e.g., <= 0)
         int effectiveNResults = (nResults > 0) ? nResults : 5; // Default to 5 if invalid
 
+        String cacheKey = SearchResultCache.key(query, effectiveNResults);
+        JsonNode cached = searchResultCache.get(cacheKey);
+        if (cached != null) {
+            logger.info("Returning cached search results for query: '{}'", query);
+            return Mono.just(cached);
+        }
+        long cacheGeneration = searchResultCache.generation();
+
         SearchRequest payload = new SearchRequest(query, effectiveNResults);
 
-        try {
-            // Use the injected fastapiWebClient bean
-            JsonNode response = fastapiWebClient.post()
-                    .uri(FASTAPI_SEARCH_ENDPOINT) // Use relative path for search
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .body(BodyInserters.fromValue(payload))
-                    .retrieve()
-                    // Handle non-2xx responses from FastAPI
-                    .onStatus(httpStatus -> !httpStatus.is2xxSuccessful(),
-                              clientResponse -> clientResponse.bodyToMono(String.class)
-                                    .flatMap(errorBody -> {
-                                        HttpStatus status = HttpStatus.resolve(clientResponse.statusCode().value());
-                                        if (status == null) {
-                                            status = HttpStatus.INTERNAL_SERVER_ERROR; // Default if unknown
-                                        }
-                                        logger.error("FastAPI search error: {} - {}", clientResponse.statusCode(), errorBody);
-                                        // Create a specific exception with status code and body
-                                        return Mono.error(new ResponseStatusException(status, "FastAPI search failed: " + errorBody));
-                                    }))
-                    .bodyToMono(JsonNode.class) // Expecting a JSON response
-                    .block(); // Block for simplicity
-
-            logger.info("Successfully received search results from FastAPI for query: '{}'", query);
-            return response;
-
-        } catch (ResponseStatusException e) {
-             // Re-throw exceptions that already have status codes
-             logger.error("Search failed due to ResponseStatusException: {}", e.getMessage());
-             throw e;
-        } catch (Exception e) {
-            // Catch other WebClient or unexpected errors
-            logger.error("Error during search request to FastAPI for query '{}': {}", query, e.getMessage(), e);
-            // Throw a generic internal server error
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to communicate with search service: " + e.getMessage(), e);
-        }
+        // Nothing blocks here: the calling thread is released while FastAPI embeds the query
+        Mono<JsonNode> searchCall = fastapiWebClient.post()
+                .uri(FASTAPI_SEARCH_ENDPOINT) // Use relative path for search
+                .httpRequest(WebConfig.responseTimeout(fastApiClientProperties.getTimeout().getSearch()))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(BodyInserters.fromValue(payload))
+                .retrieve()
+                // Handle non-2xx responses from FastAPI
+                .onStatus(httpStatus -> !httpStatus.is2xxSuccessful(),
+                          clientResponse -> clientResponse.bodyToMono(String.class)
+                                .flatMap(errorBody -> {
+                                    HttpStatus status = HttpStatus.resolve(clientResponse.statusCode().value());
+                                    if (status == null) {
+                                        status = HttpStatus.INTERNAL_SERVER_ERROR; // Default if unknown
+                                    }
+                                    logger.error("FastAPI search error: {} - {}", clientResponse.statusCode(), errorBody);
+                                    // Create a specific exception with status code and body
+                                    return Mono.error(new ResponseStatusException(status, "FastAPI search failed: " + errorBody));
+                                }))
+                .bodyToMono(JsonNode.class); // Expecting a JSON response
+
+        return fastApiResilience.guard(ResilienceConfig.SEARCH, searchCall)
+                .doOnNext(response -> {
+                    logger.info("Successfully received search results from FastAPI for query: '{}'", query);
+                    searchResultCache.put(cacheKey, response, cacheGeneration);
+                })
+                // Fallback while FastAPI is failing or search is at its concurrency limit: answer at once
+                .onErrorMap(e -> e instanceof CallNotPermittedException || e instanceof BulkheadFullException, e -> {
+                    logger.warn("Search request rejected without calling FastAPI for query '{}': {}", query, e.getMessage());
+                    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search service is temporarily unavailable, please retry shortly", e);
+                })
+                .onErrorMap(e -> e.getCause() instanceof ReadTimeoutException, e -> {
+                    logger.error("Search request to FastAPI timed out for query '{}'", query);
+                    return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Search service did not respond in time", e);
+                })
+                .onErrorMap(e -> !(e instanceof ResponseStatusException), e -> {
+                    // Other WebClient or unexpected errors become a generic internal server error
+                    logger.error("Error during search request to FastAPI for query '{}': {}", query, e.getMessage(), e);
+                    return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to communicate with search service: " + e.getMessage(), e);
+                });
     }
 }
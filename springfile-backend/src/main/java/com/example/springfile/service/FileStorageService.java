@@ -1,33 +1,75 @@
 package com.example.springfile.service;
 
+import com.example.springfile.repository.FileRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import java.net.MalformedURLException;
 
 @Service
 public class FileStorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class); // Add logger
 
+    // <64 hex chars of SHA-256><optional extension>
+    private static final Pattern CONTENT_ADDRESS_PATTERN = Pattern.compile("^[0-9a-f]{64}(\\.[^./\\\\]+)?$");
+    static final String TEMP_FILE_PREFIX = ".upload-";
+    // Chunked uploads are assembled here (same file system, so completion is a rename)
+    private static final String PARTIAL_UPLOAD_DIR = ".partial";
+    private static final String PARTIAL_FILE_SUFFIX = ".partial";
+    private static final int BLOB_LOCK_STRIPES = 64;
+
     private final Path fileStorageLocation;
+    private final boolean contentAddressed;
+    private final int shardDepth; // Directory levels of two identifier characters each (0 = flat)
+    private final FileRepository fileRepository;
+    // Serializes storing, referencing and reclaiming the same blob
+    private final ReentrantLock[] blobLocks = new ReentrantLock[BLOB_LOCK_STRIPES];
 
-    public FileStorageService(@Value("${file.upload-dir}") String uploadDir) {
+    public FileStorageService(@Value("${file.upload-dir}") String uploadDir,
+                              @Value("${file.storage.content-addressed:false}") boolean contentAddressed,
+                              @Value("${file.storage.shard-depth:0}") int shardDepth,
+                              FileRepository fileRepository) {
         this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.contentAddressed = contentAddressed;
+        this.shardDepth = Math.max(0, shardDepth);
+        this.fileRepository = fileRepository;
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new ReentrantLock();
+        }
     }
 
     @PostConstruct
@@ -39,98 +81,523 @@ public class FileStorageService {
         }
     }
 
-    public String storeFile(MultipartFile file) {
+    /**
+     * Stores an uploaded file.
+     *
+     * @param file The uploaded file.
+     * @return The stored object (identifier, size and SHA-256 of the content).
+     */
+    public StoredObject storeFile(MultipartFile file) {
         // Normalize file name
         String originalFileName = StringUtils.cleanPath(file.getOriginalFilename());
-        String fileExtension = "";
         try {
             // Check if the file's name contains invalid characters
             if (originalFileName.contains("..")) {
                 throw new RuntimeException("Sorry! Filename contains invalid path sequence " + originalFileName);
             }
 
-            int dotIndex = originalFileName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                fileExtension = originalFileName.substring(dotIndex);
-            }
-
-            // Generate a unique file name
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
-
-            // Copy file to the target location (Replacing existing file with the same name)
-            Path targetLocation = this.fileStorageLocation.resolve(uniqueFileName);
             try (InputStream inputStream = file.getInputStream()) {
-                Files.copy(inputStream, targetLocation, StandardCopyOption.REPLACE_EXISTING);
+                return storeContent(inputStream, extensionOf(originalFileName));
             }
-
-            return uniqueFileName; // Return the unique name used for storage
         } catch (IOException ex) {
             throw new RuntimeException("Could not store file " + originalFileName + ". Please try again!", ex);
         }
     }
 
+
     /**
-     * Stores the content of a Resource as a new file with a unique identifier.
+     * Stores the content of a Resource.
      * The file extension is derived from the provided original filename.
      *
      * @param resource The resource containing the file content.
      * @param originalFileNameForExtension The original filename to derive the extension from.
-     * @return The unique storage identifier (filename) generated for the new file.
+     * @return The stored object (identifier, size and SHA-256 of the content).
      */
-    public String storeFile(Resource resource, String originalFileNameForExtension) {
+    public StoredObject storeFile(Resource resource, String originalFileNameForExtension) {
         String cleanOriginalName = StringUtils.cleanPath(originalFileNameForExtension);
-        String fileExtension = "";
         try {
             // Check for invalid characters in the original name (for extension extraction safety)
             if (cleanOriginalName.contains("..")) {
                 throw new RuntimeException("Sorry! Original filename contains invalid path sequence " + cleanOriginalName);
             }
 
-            int dotIndex = cleanOriginalName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                fileExtension = cleanOriginalName.substring(dotIndex);
+            try (InputStream inputStream = resource.getInputStream()) {
+                StoredObject stored = storeContent(inputStream, extensionOf(cleanOriginalName));
+                logger.info("Successfully stored new file: {}", stored.storageIdentifier());
+                return stored;
             }
+        } catch (IOException ex) {
+            logger.error("Could not store resource {} (derived from {}): {}", resource.getDescription(), cleanOriginalName, ex.getMessage(), ex);
+            throw new RuntimeException("Could not store resource " + resource.getDescription() + ". Please try again!", ex);
+        }
+    }
 
-            // Generate a new unique file name
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
+    /**
+     * Streams content into a temporary file while hashing it, then moves it to its final name.
+     */
+    private StoredObject storeContent(InputStream inputStream, String fileExtension) throws IOException {
+        StagedFile staged = stageContent(inputStream, fileExtension);
+        try {
+            return placeBlob(staged);
+        } finally {
+            Files.deleteIfExists(staged.tempFile()); // Only left over on dedup hits or failures
+        }
+    }
 
-            // Copy resource stream to the target location
-            Path targetLocation = this.fileStorageLocation.resolve(uniqueFileName).normalize();
-            logger.debug("Attempting to store new resource at: {}", targetLocation);
+    private StagedFile stageContent(InputStream inputStream, String fileExtension) throws IOException {
+        Path tempFile = Files.createTempFile(this.fileStorageLocation, TEMP_FILE_PREFIX, ".tmp");
+        try {
+            MessageDigest digest = newSha256Digest();
+            long size;
+            try (InputStream digestStream = new DigestInputStream(inputStream, digest)) {
+                size = Files.copy(digestStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            return new StagedFile(tempFile, size, sha256, storageIdentifierFor(sha256, fileExtension));
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+    }
 
-            try (InputStream inputStream = resource.getInputStream()) {
-                Files.copy(inputStream, targetLocation, StandardCopyOption.REPLACE_EXISTING); // Use REPLACE_EXISTING for robustness, though UUID collision is unlikely
-                logger.info("Successfully stored new file: {}", uniqueFileName);
+    /**
+     * Writes an uploaded file to a temporary file and hashes it, without placing it yet.
+     * This is the expensive part of storing a file and may run on any thread; the staged file is
+     * then placed with placeStagedFiles (or dropped with discardStagedFile).
+     *
+     * @param file The uploaded file.
+     * @return The staged content.
+     */
+    public StagedFile stageFile(MultipartFile file) {
+        String originalFileName = StringUtils.cleanPath(file.getOriginalFilename());
+        if (originalFileName.contains("..")) {
+            throw new RuntimeException("Sorry! Filename contains invalid path sequence " + originalFileName);
+        }
+        try (InputStream inputStream = file.getInputStream()) {
+            return stageContent(inputStream, extensionOf(originalFileName));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + originalFileName + ". Please try again!", ex);
+        }
+    }
+
+    /**
+     * Writes content read from a stream (e.g. a raw request body) to a temporary file and hashes
+     * it, without placing it yet. Like stageFile, this should run outside any transaction; the
+     * staged file is then placed with placeStagedFile.
+     *
+     * @param inputStream The content; it is consumed and closed.
+     * @param originalFileName The original filename to derive the extension from.
+     * @return The staged content.
+     * @throws IOException if reading the content or writing the temporary file fails.
+     */
+    public StagedFile stageFile(InputStream inputStream, String originalFileName) throws IOException {
+        String cleanOriginalName = StringUtils.cleanPath(originalFileName);
+        if (cleanOriginalName.contains("..")) {
+            throw new RuntimeException("Sorry! Filename contains invalid path sequence " + cleanOriginalName);
+        }
+        return stageContent(inputStream, extensionOf(cleanOriginalName));
+    }
+
+    /**
+     * Places one staged file under its storage identifier. The blob lock stays held until the
+     * surrounding transaction completes. On a dedup hit the staged file is left in place; callers
+     * drop it with discardStagedFile.
+     *
+     * @param stagedFile A file returned by stageFile.
+     * @return The stored object.
+     */
+    public StoredObject placeStagedFile(StagedFile stagedFile) {
+        try {
+            return placeBlob(stagedFile);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file. Please try again!", ex);
+        }
+    }
+
+    /**
+     * Places staged files under their storage identifiers, like storeFile does for a single file.
+     * The blob locks stay held until the surrounding transaction completes; they are taken in a
+     * fixed order so that concurrent batches cannot deadlock. If placing fails, the blobs placed
+     * so far are released and the remaining staged files are discarded.
+     *
+     * @param stagedFiles Files returned by stageFile.
+     * @return The stored objects, in the order of stagedFiles.
+     */
+    public List<StoredObject> placeStagedFiles(List<StagedFile> stagedFiles) {
+        List<Integer> placementOrder = IntStream.range(0, stagedFiles.size()).boxed()
+                .sorted(Comparator.comparingInt(i -> blobLockIndex(stagedFiles.get(i).storageIdentifier())))
+                .toList();
+        StoredObject[] stored = new StoredObject[stagedFiles.size()];
+        try {
+            for (int i : placementOrder) {
+                stored[i] = placeBlob(stagedFiles.get(i));
+                discardStagedFile(stagedFiles.get(i)); // Still present on dedup hits
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (int i = 0; i < stored.length; i++) {
+                if (stored[i] != null) {
+                    releaseFile(stored[i].storageIdentifier());
+                } else {
+                    discardStagedFile(stagedFiles.get(i));
+                }
             }
-            return uniqueFileName; // Return the new unique identifier
+            throw new RuntimeException("Could not store files. Please try again!", ex);
+        }
+        return List.of(stored);
+    }
+
+    public void discardStagedFile(StagedFile stagedFile) {
+        try {
+            Files.deleteIfExists(stagedFile.tempFile());
         } catch (IOException ex) {
-            logger.error("Could not store resource {} (derived from {}): {}", resource.getDescription(), cleanOriginalName, ex.getMessage(), ex);
-            throw new RuntimeException("Could not store resource " + resource.getDescription() + ". Please try again!", ex);
+            logger.warn("Could not delete temporary file {}: {}", stagedFile.tempFile(), ex.getMessage());
         }
     }
 
-    public Resource loadFileAsResource(String storageIdentifier) {
+    /**
+     * Moves a fully written file to its storage identifier: the SHA-256 digest in content-addressed
+     * mode (reusing an existing blob with the same digest, in which case the source is left for the
+     * caller to delete), or a random UUID otherwise.
+     *
+     * The blob's lock stays held until the surrounding transaction completes, so a concurrent
+     * releaseFile cannot reclaim a shared blob before the new reference has been committed.
+     */
+    private StoredObject placeBlob(StagedFile stagedFile) throws IOException {
+        Path sourceFile = stagedFile.tempFile();
+        long size = stagedFile.size();
+        String sha256 = stagedFile.sha256();
+        String storageIdentifier = stagedFile.storageIdentifier();
+        Path targetLocation = shardedPath(storageIdentifier);
+
+        ReentrantLock lock = blobLock(storageIdentifier);
+        lock.lock();
+        boolean deduplicated;
         try {
-            Path filePath = this.fileStorageLocation.resolve(storageIdentifier).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-            if (resource.exists()) {
-                return resource;
-            } else {
-                throw new RuntimeException("File not found " + storageIdentifier);
+            deduplicated = contentAddressed
+                    && (Files.exists(targetLocation) || Files.exists(flatPath(storageIdentifier)));
+            if (!deduplicated) {
+                Files.createDirectories(targetLocation.getParent());
+                Files.move(sourceFile, targetLocation, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException | RuntimeException ex) {
+            lock.unlock();
+            throw ex;
+        }
+        holdUntilTransactionCompletes(lock);
+
+        if (deduplicated) {
+            logger.info("Content already stored as {}, reusing existing blob", storageIdentifier);
+        }
+        return new StoredObject(storageIdentifier, size, sha256, deduplicated);
+    }
+
+    private String storageIdentifierFor(String sha256, String fileExtension) {
+        return contentAddressed
+                ? sha256 + fileExtension.toLowerCase(Locale.ROOT)
+                : UUID.randomUUID().toString() + fileExtension;
+    }
+
+    // --- Chunked (resumable) uploads: assembled in place in a preallocated partial file ---
+
+    /**
+     * Creates the partial file for a chunked upload, preallocated (sparse) to its final size.
+     */
+    public Path createPartialFile(String uploadId, long size) {
+        try {
+            Path partialFile = partialFilePath(uploadId);
+            Files.createDirectories(partialFile.getParent());
+            try (RandomAccessFile file = new RandomAccessFile(partialFile.toFile(), "rw")) {
+                file.setLength(size);
+            }
+            return partialFile;
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create partial upload " + uploadId, ex);
+        }
+    }
+
+    /**
+     * Writes exactly length bytes from the stream at the given offset of a partial file.
+     * Uses positional FileChannel writes, so chunks of the same upload can be written in parallel.
+     *
+     * @throws IllegalArgumentException if the stream holds fewer or more than length bytes.
+     */
+    public void writeChunk(Path partialFile, long offset, long length, InputStream inputStream) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(inputStream);
+        try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.WRITE)) {
+            long written = 0;
+            while (written < length) {
+                long transferred = channel.transferFrom(source, offset + written, length - written);
+                if (transferred <= 0) {
+                    break; // Source exhausted
+                }
+                written += transferred;
+            }
+            if (written != length || inputStream.read() != -1) {
+                throw new IllegalArgumentException("Chunk must contain exactly " + length + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Hashes a fully assembled partial file in one read pass, without moving it yet. The partial
+     * file itself is the staged file: placeStagedFile moves (not copies) it to its final location,
+     * and until then it stays where it is.
+     */
+    public StagedFile stageAssembledFile(Path partialFile, String originalFileName) {
+        String cleanOriginalName = StringUtils.cleanPath(originalFileName);
+        try {
+            if (cleanOriginalName.contains("..")) {
+                throw new RuntimeException("Sorry! Filename contains invalid path sequence " + cleanOriginalName);
+            }
+            MessageDigest digest = newSha256Digest();
+            long size;
+            try (InputStream digestStream = new DigestInputStream(Files.newInputStream(partialFile), digest)) {
+                size = digestStream.transferTo(OutputStream.nullOutputStream());
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            return new StagedFile(partialFile, size, sha256, storageIdentifierFor(sha256, extensionOf(cleanOriginalName)));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + cleanOriginalName + ". Please try again!", ex);
+        }
+    }
+
+    public void deletePartialFile(String uploadId) {
+        try {
+            Files.deleteIfExists(partialFilePath(uploadId));
+        } catch (IOException ex) {
+            logger.warn("Could not delete partial upload {}: {}", uploadId, ex.getMessage());
+        }
+    }
+
+    /**
+     * Lists the partial files on disk (including ones left behind by a restart).
+     */
+    public List<Path> listPartialFiles() {
+        Path partialDirectory = this.fileStorageLocation.resolve(PARTIAL_UPLOAD_DIR);
+        if (!Files.isDirectory(partialDirectory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(partialDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(PARTIAL_FILE_SUFFIX)).toList();
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not list partial uploads", ex);
+        }
+    }
+
+    private Path partialFilePath(String uploadId) {
+        return checkedPath(this.fileStorageLocation.resolve(PARTIAL_UPLOAD_DIR).resolve(uploadId + PARTIAL_FILE_SUFFIX));
+    }
+
+    /**
+     * Drops one reference to a stored blob. The blob is deleted once no File row references it.
+     * Inside a transaction the check runs after the transaction completes, so it sees the
+     * committed reference count.
+     *
+     * @param storageIdentifier The storage identifier of the blob.
+     */
+    public void releaseFile(String storageIdentifier) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    deleteIfUnreferenced(storageIdentifier);
+                }
+            });
+        } else {
+            deleteIfUnreferenced(storageIdentifier);
+        }
+    }
+
+    private void deleteIfUnreferenced(String storageIdentifier) {
+        try {
+            reclaimIfUnreferenced(storageIdentifier);
+        } catch (RuntimeException ex) {
+            // The blob is left behind as an orphan; it is not referenced by any visible file
+            logger.error("Could not release stored file {}: {}", storageIdentifier, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Deletes a stored blob if no committed File row references it anymore.
+     *
+     * @param storageIdentifier The storage identifier of the blob.
+     * @return true if the blob was unreferenced (and is gone now), false if it is still in use.
+     * @throws RuntimeException if the reference count or the delete fails.
+     */
+    public boolean reclaimIfUnreferenced(String storageIdentifier) {
+        ReentrantLock lock = blobLock(storageIdentifier);
+        lock.lock();
+        try {
+            long references = fileRepository.countByStorageIdentifier(storageIdentifier);
+            if (references == 0) {
+                deleteFile(storageIdentifier);
+                return true;
             }
-        } catch (MalformedURLException ex) {
-            throw new RuntimeException("File not found " + storageIdentifier, ex);
+            logger.info("Keeping stored file {}: still referenced by {} file(s)", storageIdentifier, references);
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Deletes a file found in the upload directory (e.g. by walkStoredFiles) if no File row
+     * references its name. Unlike reclaimIfUnreferenced this deletes the given path, which also
+     * covers copies that are not at the location the identifier resolves to.
+     *
+     * @return true if the file was unreferenced and has been deleted.
+     */
+    public boolean deleteIfUnreferenced(Path storedFile) {
+        Path path = checkedPath(storedFile);
+        String storageIdentifier = path.getFileName().toString();
+        ReentrantLock lock = blobLock(storageIdentifier);
+        lock.lock();
+        try {
+            if (fileRepository.countByStorageIdentifier(storageIdentifier) > 0) {
+                return false;
+            }
+            boolean deleted = Files.deleteIfExists(path);
+            if (deleted) {
+                logger.info("Deleted unreferenced file: {}", this.fileStorageLocation.relativize(path));
+            }
+            return deleted;
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not delete file " + storageIdentifier + ". Please try again!", ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a storage identifier is already a content address (SHA-256 digest plus extension).
+     */
+    public boolean isContentAddressed(String storageIdentifier) {
+        return CONTENT_ADDRESS_PATTERN.matcher(storageIdentifier).matches();
+    }
+
+    public boolean isContentAddressedMode() {
+        return contentAddressed;
+    }
+
+    private ReentrantLock blobLock(String storageIdentifier) {
+        return blobLocks[blobLockIndex(storageIdentifier)];
+    }
+
+    private int blobLockIndex(String storageIdentifier) {
+        return Math.floorMod(storageIdentifier.hashCode(), blobLocks.length);
+    }
+
+    private void holdUntilTransactionCompletes(ReentrantLock lock) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    lock.unlock();
+                }
+            });
+        } else {
+            lock.unlock();
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex > 0 ? fileName.substring(dotIndex) : "";
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex); // Mandatory in every JRE
+        }
+    }
+
+    /**
+     * Loads a stored file as a file-system backed Resource, so callers can use its File/channel
+     * directly (e.g. for sendfile or region transfers) instead of only its InputStream.
+     */
+    public Resource loadFileAsResource(String storageIdentifier) {
+        return new FileSystemResource(resolveFilePath(storageIdentifier));
+    }
+
+    /**
+     * Whether a blob exists (sharded or flat). Checked under the blob's lock, so a concurrent
+     * move into the sharded layout is not mistaken for a missing blob.
+     */
+    public boolean isStored(String storageIdentifier) {
+        ReentrantLock lock = blobLock(storageIdentifier);
+        lock.lock();
+        try {
+            return Files.isRegularFile(shardedPath(storageIdentifier)) || Files.isRegularFile(flatPath(storageIdentifier));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists every stored blob (sharded or flat), lazily while the directory tree is walked.
+     * Temporary files and partial uploads (dot-names) are skipped. The stream must be closed.
+     */
+    public Stream<Path> walkStoredFiles() {
+        try {
+            return Files.walk(this.fileStorageLocation)
+                    .filter(path -> {
+                        for (Path element : this.fileStorageLocation.relativize(path)) {
+                            if (element.toString().startsWith(".")) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    })
+                    .filter(Files::isRegularFile);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not list upload directory " + this.fileStorageLocation, ex);
+        }
+    }
+
+    /**
+     * Resolves the path of a stored file: its sharded location, or the flat location
+     * for files stored before sharding that have not been moved yet. Lock-free: a file moved
+     * into the sharded layout while it is being resolved is found by a second sharded check.
+     *
+     * @throws RuntimeException if the file does not exist.
+     */
+    public Path resolveFilePath(String storageIdentifier) {
+        Path shardedPath = shardedPath(storageIdentifier);
+        if (Files.isRegularFile(shardedPath)) {
+            return shardedPath;
+        }
+        Path flatPath = flatPath(storageIdentifier);
+        if (Files.isRegularFile(flatPath)) {
+            return flatPath;
+        }
+        // relocateFlatFiles may have moved it from flat to sharded between the two checks
+        if (Files.isRegularFile(shardedPath)) {
+            return shardedPath;
+        }
+        throw new RuntimeException("File not found " + storageIdentifier);
+    }
+
+    /**
+     * Path of a stored file relative to the upload directory (e.g. "ab/cd/abcd...pdf"),
+     * as expected by the FastAPI service, which reads the same directory.
+     *
+     * @throws RuntimeException if the file does not exist.
+     */
+    public String resolveRelativePath(String storageIdentifier) {
+        return this.fileStorageLocation.relativize(resolveFilePath(storageIdentifier)).toString().replace('\\', '/');
+    }
+
     public void deleteFile(String storageIdentifier) {
         try {
-            Path targetLocation = this.fileStorageLocation.resolve(storageIdentifier).normalize();
-            boolean deleted = Files.deleteIfExists(targetLocation);
+            // Only one of these exists; the flat one if the file predates sharding
+            boolean deleted = Files.deleteIfExists(shardedPath(storageIdentifier))
+                    | Files.deleteIfExists(flatPath(storageIdentifier));
             if (deleted) {
-                logger.info("Successfully deleted file: {}", targetLocation);
+                logger.info("Successfully deleted file: {}", storageIdentifier);
             } else {
-                logger.warn("File to delete not found: {}", targetLocation);
+                logger.warn("File to delete not found: {}", storageIdentifier);
                 // Depending on requirements, you might throw an exception here
                 // throw new RuntimeException("File not found: " + storageIdentifier);
             }
@@ -140,4 +607,78 @@ public class FileStorageService {
             throw new RuntimeException("Could not delete file " + storageIdentifier + ". Please try again!", ex);
         }
     }
+
+    /**
+     * Moves files still lying flat in the upload directory into their shard directories.
+     * Safe while the application is serving: each file is moved atomically under its blob
+     * lock, and lookups fall back to the flat location until the move has happened.
+     *
+     * @return Number of files moved.
+     */
+    public int relocateFlatFiles() {
+        if (shardDepth == 0) {
+            return 0;
+        }
+        int moved = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.fileStorageLocation, Files::isRegularFile)) {
+            for (Path flatPath : entries) {
+                String storageIdentifier = flatPath.getFileName().toString();
+                if (storageIdentifier.startsWith(".")) {
+                    continue; // Temporary/partial uploads
+                }
+                Path targetLocation = shardedPath(storageIdentifier);
+                if (targetLocation.equals(flatPath)) {
+                    continue; // Identifier too short to shard
+                }
+                ReentrantLock lock = blobLock(storageIdentifier);
+                lock.lock();
+                try {
+                    if (!Files.exists(flatPath)) {
+                        continue; // Deleted meanwhile
+                    }
+                    Files.createDirectories(targetLocation.getParent());
+                    if (Files.exists(targetLocation)) {
+                        Files.delete(flatPath); // Same name means same content (or a leftover copy)
+                    } else {
+                        Files.move(flatPath, targetLocation, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    moved++;
+                } catch (IOException ex) {
+                    logger.warn("Could not move {} into sharded layout: {}", storageIdentifier, ex.getMessage());
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not list upload directory " + this.fileStorageLocation, ex);
+        }
+        return moved;
+    }
+
+    // e.g. depth 2: "3ee2bf28...png" -> <upload-dir>/3e/e2/3ee2bf28...png
+    private Path shardedPath(String storageIdentifier) {
+        Path directory = this.fileStorageLocation;
+        for (int level = 0; level < shardDepth; level++) {
+            int start = level * 2;
+            if (storageIdentifier.length() <= start + 2
+                    || !Character.isLetterOrDigit(storageIdentifier.charAt(start))
+                    || !Character.isLetterOrDigit(storageIdentifier.charAt(start + 1))) {
+                return flatPath(storageIdentifier); // Not shardable (too short or unusual name)
+            }
+            directory = directory.resolve(storageIdentifier.substring(start, start + 2).toLowerCase(Locale.ROOT));
+        }
+        return checkedPath(directory.resolve(storageIdentifier));
+    }
+
+    private Path flatPath(String storageIdentifier) {
+        return checkedPath(this.fileStorageLocation.resolve(storageIdentifier));
+    }
+
+    private Path checkedPath(Path path) {
+        Path normalized = path.normalize();
+        if (!normalized.startsWith(this.fileStorageLocation)) {
+            throw new RuntimeException("File not found " + path.getFileName()); // Never resolve outside the upload dir
+        }
+        return normalized;
+    }
 }
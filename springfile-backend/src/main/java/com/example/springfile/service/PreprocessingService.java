@@ -0,0 +1,290 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.AsyncConfig;
+import com.example.springfile.config.FastApiClientProperties;
+import com.example.springfile.config.ResilienceConfig;
+import com.example.springfile.config.WebConfig;
+import com.example.springfile.model.File;
+import com.example.springfile.repository.CategoryRepository;
+import com.example.springfile.repository.FileRepository;
+import com.example.springfile.repository.SubcategoryRepository;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runs DOCX preprocessing batches in the background.
+ * Kept separate from FileService so calls go through the Spring proxy and
+ * {@code @Async} actually hands the batch to the background executor.
+ */
+@Service
+public class PreprocessingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreprocessingService.class);
+
+    private static final String DOCX_MIME_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final String FASTAPI_PREPROCESS_ENDPOINT = "/preprocess/docx/"; // Relative path for preprocessing
+    private static final String PROCESSED_RESULT_PREFIX = "processed_new_file_id=";
+
+    private final FileRepository fileRepository;
+    private final CategoryRepository categoryRepository;
+    private final SubcategoryRepository subcategoryRepository;
+    private final FileStorageService fileStorageService;
+    private final WebClient fastapiWebClient;
+    private final AsyncTaskManager asyncTaskManager;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final FastApiClientProperties fastApiClientProperties;
+    private final FastApiResilience fastApiResilience;
+
+    // Preprocessing pipeline tuning
+    @Value("${fastapi.preprocess.concurrency:4}")
+    private int preprocessConcurrency;
+    @Value("${fastapi.preprocess.max-retries:2}")
+    private int preprocessMaxRetries;
+    @Value("${fastapi.preprocess.retry-backoff:500ms}")
+    private Duration preprocessRetryBackoff;
+
+    @Autowired
+    public PreprocessingService(FileRepository fileRepository,
+                                CategoryRepository categoryRepository,
+                                SubcategoryRepository subcategoryRepository,
+                                FileStorageService fileStorageService,
+                                WebClient fastapiWebClient,
+                                AsyncTaskManager asyncTaskManager,
+                                PlatformTransactionManager transactionManager,
+                                FastApiClientProperties fastApiClientProperties,
+                                FastApiResilience fastApiResilience) {
+        this.fileRepository = fileRepository;
+        this.categoryRepository = categoryRepository;
+        this.subcategoryRepository = subcategoryRepository;
+        this.fileStorageService = fileStorageService;
+        this.fastapiWebClient = fastapiWebClient;
+        this.asyncTaskManager = asyncTaskManager;
+        // Programmatic transactions keep each unit of work short inside the pipeline
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.fastApiClientProperties = fastApiClientProperties;
+        this.fastApiResilience = fastApiResilience;
+    }
+
+    /**
+     * Preprocesses the given DOCX files through FastAPI as a bounded-concurrency reactive pipeline.
+     * Up to {@code fastapi.preprocess.concurrency} files are in flight at once, each FastAPI call has
+     * its own timeout and is retried with backoff on transient failures, and every processed file is
+     * persisted in its own short transaction as soon as it completes.
+     *
+     * @param fileIds List of file IDs to process.
+     * @param taskId The task ID under which progress is reported.
+     */
+    @Async(AsyncConfig.BACKGROUND_TASK_EXECUTOR) // Runs on the bounded background executor, not the request thread
+    public void preprocessFilesAsync(List<Long> fileIds, String taskId) {
+        Map<Long, String> results = new ConcurrentHashMap<>();
+        logger.info("Task {} - Starting async preprocessing for file IDs: {} (concurrency={})", taskId, fileIds, preprocessConcurrency);
+
+        try {
+            // A repeated ID would be processed twice and create two processed files
+            Set<Long> distinctIds = new LinkedHashSet<>(fileIds);
+            Flux.fromIterable(distinctIds)
+                    .flatMap(id -> preprocessSingleFile(taskId, id)
+                            .doOnNext(fileStatus -> {
+                                results.put(id, fileStatus);
+                                // A processed file's result was stored together with its new row
+                                if (!fileStatus.startsWith(PROCESSED_RESULT_PREFIX)) {
+                                    asyncTaskManager.recordItemResult(taskId, id, fileStatus);
+                                }
+                            }), preprocessConcurrency)
+                    .blockLast();
+
+            // Any per-file error marks the overall task as failed
+            String finalMessage = distinctIds.stream()
+                    .filter(id -> results.getOrDefault(id, "").startsWith("error"))
+                    .map(id -> "Error processing ID " + id + ": " + results.get(id).substring("error: ".length()))
+                    .collect(Collectors.joining("; "));
+            String finalStatus = finalMessage.isEmpty() ? "COMPLETED" : "FAILED";
+
+            logger.info("Task {} - Async preprocessing finished. Final Status: {}, Results: {}", taskId, finalStatus, results);
+            asyncTaskManager.updateTaskStatus(taskId, finalStatus, finalMessage.isEmpty() ? null : finalMessage, new HashMap<>(results));
+
+        } catch (Exception e) {
+            // Catch unexpected errors during the async execution
+            logger.error("Task {} - Unexpected error during async preprocessing task: {}", taskId, e.getMessage(), e);
+            asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Unexpected error: " + e.getMessage(), new HashMap<>(results));
+        }
+    }
+
+    // Snapshot of the original file taken in a read-only transaction; skipStatus is set when no FastAPI call is needed
+    private record PreprocessCandidate(Long fileId, String fileName, Resource resource,
+                                       Long categoryId, Long subcategoryId, String skipStatus) {
+        static PreprocessCandidate skipped(Long fileId, String skipStatus) {
+            return new PreprocessCandidate(fileId, null, null, null, null, skipStatus);
+        }
+    }
+
+    /**
+     * Runs a single file through load -> FastAPI -> store -> persist.
+     * Never errors; failures are mapped to an "error: ..." status for the file.
+     */
+    private Mono<String> preprocessSingleFile(String taskId, Long id) {
+        return Mono.fromCallable(() -> loadPreprocessCandidate(taskId, id))
+                .subscribeOn(Schedulers.boundedElastic()) // JPA and file access are blocking
+                .flatMap(candidate -> {
+                    if (candidate.skipStatus() != null) {
+                        return Mono.just(candidate.skipStatus());
+                    }
+                    return callPreprocessEndpoint(taskId, candidate)
+                            .publishOn(Schedulers.boundedElastic())
+                            .map(processedResource -> persistProcessedFile(taskId, candidate, processedResource))
+                            .switchIfEmpty(Mono.fromSupplier(() -> {
+                                logger.error("Task {} - Preprocessing failed: No processed resource received from FastAPI for file ID {}", taskId, id);
+                                return "error: no processed data received";
+                            }));
+                })
+                .onErrorResume(e -> {
+                    String message = (e instanceof WebClientResponseException responseException)
+                            ? "FastAPI error: " + responseException.getStatusCode() + " - " + responseException.getResponseBodyAsString()
+                            : e.getMessage();
+                    logger.error("Task {} - Preprocessing failed for file ID {}: {}", taskId, id, message, e);
+                    return Mono.just("error: " + message);
+                });
+    }
+
+    private PreprocessCandidate loadPreprocessCandidate(String taskId, Long id) {
+        return readOnlyTransactionTemplate.execute(txStatus -> {
+            Optional<File> fileOptional = fileRepository.findById(id);
+            if (fileOptional.isEmpty()) {
+                logger.warn("Task {} - Preprocessing skipped: File not found for ID {}", taskId, id);
+                return PreprocessCandidate.skipped(id, "not_found");
+            }
+
+            File file = fileOptional.get();
+            String originalFileName = file.getFileName();
+
+            // Check if it's a DOCX file
+            boolean isDocx = originalFileName != null && originalFileName.toLowerCase().endsWith(".docx");
+            if (!isDocx) {
+                logger.info("Task {} - Preprocessing skipped: File ID {} ({}) is not a DOCX file.", taskId, id, originalFileName);
+                return PreprocessCandidate.skipped(id, "not_docx");
+            }
+
+            Resource originalResource;
+            try {
+                originalResource = fileStorageService.loadFileAsResource(file.getStorageIdentifier());
+            } catch (RuntimeException e) {
+                originalResource = null;
+            }
+            if (originalResource == null || !originalResource.isReadable()) {
+                logger.error("Task {} - Preprocessing failed: Cannot read original file resource for ID {}", taskId, id);
+                return PreprocessCandidate.skipped(id, "error: cannot read original file");
+            }
+
+            // Only IDs are kept; references are re-attached in the write transaction
+            return new PreprocessCandidate(id, originalFileName, originalResource,
+                    file.getCategory().getId(),
+                    file.getSubcategory() != null ? file.getSubcategory().getId() : null,
+                    null);
+        });
+    }
+
+    private Mono<Resource> callPreprocessEndpoint(String taskId, PreprocessCandidate candidate) {
+        // Prepare request for FastAPI; the resource is re-read on every (re)subscription
+        MultipartBodyBuilder bodyBuilder = new MultipartBodyBuilder();
+        bodyBuilder.part("file", candidate.resource()).filename(candidate.fileName());
+
+        return Mono.defer(() -> {
+                    logger.info("Task {} - Calling FastAPI to preprocess file ID {}", taskId, candidate.fileId());
+                    Mono<Resource> preprocessCall = fastapiWebClient.post()
+                            .uri(FASTAPI_PREPROCESS_ENDPOINT)
+                            .httpRequest(WebConfig.responseTimeout(fastApiClientProperties.getTimeout().getPreprocess()))
+                            .contentType(MediaType.MULTIPART_FORM_DATA)
+                            .body(BodyInserters.fromMultipartData(bodyBuilder.build()))
+                            .retrieve() // 4xx/5xx surface as WebClientResponseException
+                            .bodyToMono(Resource.class);
+                    return fastApiResilience.guardQueued(ResilienceConfig.PREPROCESS, preprocessCall);
+                })
+                .retryWhen(Retry.backoff(preprocessMaxRetries, preprocessRetryBackoff)
+                        .filter(this::isRetryableFastApiError)
+                        .doBeforeRetry(signal -> logger.warn("Task {} - Retrying FastAPI preprocessing for file ID {} (attempt {}): {}",
+                                taskId, candidate.fileId(), signal.totalRetries() + 1, signal.failure().getMessage()))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    // Client errors (4xx) will not succeed on retry, nor will calls while the circuit breaker is open;
+    // timeouts, connection errors and 5xx might
+    private boolean isRetryableFastApiError(Throwable e) {
+        if (e instanceof CallNotPermittedException) {
+            return false;
+        }
+        return !(e instanceof WebClientResponseException responseException
+                && responseException.getStatusCode().is4xxClientError());
+    }
+
+    private String persistProcessedFile(String taskId, PreprocessCandidate candidate, Resource processedResource) {
+        Long id = candidate.fileId();
+        String originalFileName = candidate.fileName();
+        logger.info("Task {} - Received processed resource from FastAPI for file ID {}", taskId, id);
+        // Store the processed content and its File row in one transaction, so the blob cannot be
+        // reclaimed by a concurrent delete before the new reference is committed.
+        // Identical output from an earlier run reuses the existing blob.
+        File processedFile = transactionTemplate.execute(txStatus -> {
+            StoredObject stored = fileStorageService.storeFile(processedResource, originalFileName);
+            try {
+                // Create a new File entity for the processed file
+                File newFile = new File();
+                String processedFileName = originalFileName.replaceFirst("(?i)\\.docx$", "_processed.docx");
+                if (processedFileName.equals(originalFileName)) { // Handle case where extension wasn't found or name didn't end with .docx
+                    processedFileName = originalFileName + "_processed";
+                }
+                newFile.setFileName(processedFileName);
+                newFile.setStorageIdentifier(stored.storageIdentifier());
+                newFile.setFileType(DOCX_MIME_TYPE); // Assume it's still DOCX
+                newFile.setSize(stored.size());
+                newFile.setCategory(categoryRepository.getReferenceById(candidate.categoryId()));
+                if (candidate.subcategoryId() != null) { // Copy subcategory from original
+                    newFile.setSubcategory(subcategoryRepository.getReferenceById(candidate.subcategoryId()));
+                }
+                newFile.setUploadTimestamp(LocalDateTime.now()); // Set new timestamp
+                File savedFile = fileRepository.saveAndFlush(newFile); // Flush so a failed insert surfaces here
+                // Committed with the new row, so a resumed task never processes this file twice
+                asyncTaskManager.recordItemResultInTransaction(taskId, id, PROCESSED_RESULT_PREFIX + savedFile.getId());
+                return savedFile;
+            } catch (RuntimeException e) {
+                // Don't leave an untracked blob behind if the row could not be written
+                fileStorageService.releaseFile(stored.storageIdentifier());
+                throw e;
+            }
+        });
+
+        logger.info("Task {} - Successfully processed file ID {} and saved as new file with ID {} and storage ID {}",
+                taskId, id, processedFile.getId(), processedFile.getStorageIdentifier());
+        return PROCESSED_RESULT_PREFIX + processedFile.getId();
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.springfile.service;
+
+import com.example.springfile.repository.FileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Periodically compares the upload directory with the File table.
+ * - Orphan blobs: stored files no File row references (e.g. left by a crash between storing a
+ *   blob and committing its row). Only files older than file.reconcile.min-age are considered,
+ *   so uploads in progress are not affected.
+ * - Dangling rows: File rows whose blob is missing.
+ * Both sides are processed in batches (the directory is walked lazily, the table is read a slice
+ * at a time by id, each slice in its own short transaction), with a pause between batches.
+ * Findings are logged, and repaired only if enabled.
+ */
+@Service
+public class ReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReconciliationService.class);
+    private static final int MAX_LOGGED_FINDINGS = 20;
+
+    private final FileRepository fileRepository;
+    private final FileStorageService fileStorageService;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    @Value("${file.reconcile.enabled:true}")
+    private boolean enabled;
+    @Value("${file.reconcile.batch-size:500}")
+    private int batchSize;
+    @Value("${file.reconcile.batch-pause:100ms}")
+    private Duration batchPause;
+    @Value("${file.reconcile.min-age:1h}")
+    private Duration minAge;
+    @Value("${file.reconcile.delete-orphan-blobs:false}")
+    private boolean deleteOrphanBlobs;
+    @Value("${file.reconcile.delete-dangling-rows:false}")
+    private boolean deleteDanglingRows;
+
+    // Outcome of one reconciliation run
+    public record ReconciliationReport(long blobsScanned, long orphanBlobs, long orphanBlobsDeleted,
+                                       long rowsScanned, long danglingRows, long danglingRowsDeleted) {}
+
+    @Autowired
+    public ReconciliationService(FileRepository fileRepository,
+                                 FileStorageService fileStorageService,
+                                 PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.fileStorageService = fileStorageService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Each batch of deletes commits on its own, even if a caller's transaction is active
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    @Scheduled(initialDelayString = "${file.reconcile.interval:24h}", fixedDelayString = "${file.reconcile.interval:24h}")
+    public void reconcileOnSchedule() {
+        if (enabled) {
+            reconcile();
+        }
+    }
+
+    /**
+     * Runs one full reconciliation.
+     *
+     * @return Counts of what was scanned, found and repaired.
+     */
+    public ReconciliationReport reconcile() {
+        logger.info("Reconciliation started (delete orphan blobs: {}, delete dangling rows: {})", deleteOrphanBlobs, deleteDanglingRows);
+        long[] blobCounts = findOrphanBlobs();
+        long[] rowCounts = findDanglingRows();
+        ReconciliationReport report = new ReconciliationReport(blobCounts[0], blobCounts[1], blobCounts[2],
+                rowCounts[0], rowCounts[1], rowCounts[2]);
+        logger.info("Reconciliation finished: {}", report);
+        return report;
+    }
+
+    // Walks the upload directory; returns {scanned, orphans, deleted}
+    private long[] findOrphanBlobs() {
+        long scanned = 0, orphans = 0, deleted = 0;
+        Instant cutoff = Instant.now().minus(minAge);
+        try (Stream<Path> storedFiles = fileStorageService.walkStoredFiles()) {
+            Iterator<Path> iterator = storedFiles.iterator();
+            while (iterator.hasNext()) {
+                // Storage identifier -> path, for one batch of files old enough to judge
+                Map<String, Path> batch = new LinkedHashMap<>();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    Path path = iterator.next();
+                    scanned++;
+                    if (isOlderThan(path, cutoff)) {
+                        batch.put(path.getFileName().toString(), path);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                Set<String> referenced = fileRepository.findReferencedStorageIdentifiers(batch.keySet());
+                for (Map.Entry<String, Path> entry : batch.entrySet()) {
+                    if (referenced.contains(entry.getKey())) {
+                        continue;
+                    }
+                    orphans++;
+                    if (orphans <= MAX_LOGGED_FINDINGS) {
+                        logger.warn("Orphan blob (no file references it): {}", entry.getValue());
+                    }
+                    if (deleteOrphanBlobs && deleteOrphan(entry.getValue())) {
+                        deleted++;
+                    }
+                }
+                pause();
+            }
+        }
+        return new long[] {scanned, orphans, deleted};
+    }
+
+    // Walks the File table in id order, one short read per batch; returns {scanned, dangling, deleted}
+    private long[] findDanglingRows() {
+        long scanned = 0, dangling = 0, deleted = 0;
+        List<Long> danglingIds = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            long afterId = lastId;
+            // No connection is held while blobs are checked or between batches
+            List<FileRepository.StorageReference> batch = readOnlyTransactionTemplate.execute(txStatus ->
+                    fileRepository.findStorageReferencesAfter(afterId, Limit.of(batchSize)));
+            if (batch == null || batch.isEmpty()) {
+                break;
+            }
+            for (FileRepository.StorageReference reference : batch) {
+                lastId = reference.getId();
+                scanned++;
+                if (fileStorageService.isStored(reference.getStorageIdentifier())) {
+                    continue;
+                }
+                dangling++;
+                if (dangling <= MAX_LOGGED_FINDINGS) {
+                    logger.warn("Dangling file row (blob missing): ID {}, storage identifier {}",
+                            reference.getId(), reference.getStorageIdentifier());
+                }
+                if (deleteDanglingRows) {
+                    danglingIds.add(reference.getId());
+                }
+            }
+            deleted += deleteRows(danglingIds);
+            if (batch.size() < batchSize) {
+                break; // Last slice
+            }
+            pause();
+        }
+        return new long[] {scanned, dangling, deleted};
+    }
+
+    private boolean deleteOrphan(Path path) {
+        try {
+            return fileStorageService.deleteIfUnreferenced(path); // Re-checked under the blob lock
+        } catch (RuntimeException e) {
+            logger.warn("Could not delete orphan blob {}: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    // Deletes (and clears) the collected dangling rows in their own transaction, so a later failure
+    // does not roll back batches already deleted
+    private int deleteRows(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Integer deleted = transactionTemplate.execute(txStatus -> {
+            // The scan reads a snapshot; a row may have been pointed at another blob since
+            List<Long> stillDangling = fileRepository.findByIdIn(ids).stream()
+                    .filter(reference -> !fileStorageService.isStored(reference.getStorageIdentifier()))
+                    .map(FileRepository.StorageReference::getId)
+                    .toList();
+            return stillDangling.isEmpty() ? 0 : fileRepository.deleteByIds(stillDangling);
+        });
+        logger.info("Deleted {} dangling file row(s)", deleted);
+        ids.clear();
+        return deleted != null ? deleted : 0;
+    }
+
+    private static boolean isOlderThan(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false; // Deleted meanwhile
+        }
+    }
+
+    private void pause() {
+        if (batchPause.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(batchPause.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reconciliation interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.CacheConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches FastAPI search responses by query (whitespace normalized) and result count.
+ * Cleared whenever the set of embedded files changes (files marked as embedded, embedded
+ * files deleted), since any cached result may then be incomplete or point at deleted files.
+ */
+@Component
+public class SearchResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchResultCache.class);
+
+    private final Cache cache;
+    // Bumped on every invalidation; a search that started before it does not cache its (stale) result
+    private final AtomicLong generation = new AtomicLong();
+    // Makes the generation check and the insert in put() atomic with respect to invalidate()
+    private final Object invalidationLock = new Object();
+
+    @Autowired
+    public SearchResultCache(CacheManager cacheManager) {
+        this.cache = cacheManager.getCache(CacheConfig.SEARCH_RESULTS_CACHE);
+    }
+
+    // Whitespace differences do not make a different query; case does, as FastAPI gets the query as typed
+    public static String key(String query, int nResults) {
+        return query.strip().replaceAll("\\s+", " ") + "|" + nResults;
+    }
+
+    public JsonNode get(String key) {
+        return cache.get(key, JsonNode.class);
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Caches a result, unless the cache was invalidated since the search started.
+     *
+     * @param generation The value of generation() taken before the search was sent.
+     */
+    public void put(String key, JsonNode result, long generation) {
+        synchronized (invalidationLock) {
+            if (this.generation.get() == generation) {
+                cache.put(key, result);
+            }
+        }
+    }
+
+    public void invalidate() {
+        synchronized (invalidationLock) {
+            generation.incrementAndGet();
+            cache.clear();
+        }
+        logger.debug("Search result cache invalidated");
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.springfile.service;
+
+import java.nio.file.Path;
+
+/**
+ * Content written to a temporary file and hashed by FileStorageService, but not yet placed
+ * under its storage identifier.
+ *
+ * @param tempFile The temporary file holding the content.
+ * @param size Number of bytes written.
+ * @param sha256 Hex SHA-256 digest of the content.
+ * @param storageIdentifier The name the content will be stored under.
+ */
+public record StagedFile(Path tempFile, long size, String sha256, String storageIdentifier) {}
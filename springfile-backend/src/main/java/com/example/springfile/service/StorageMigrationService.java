@@ -0,0 +1,132 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.AsyncConfig;
+import com.example.springfile.model.File;
+import com.example.springfile.repository.FileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Background storage migrations.
+ *
+ * Moves files stored under legacy UUID names to content-addressed (SHA-256) names.
+ * Each file is re-stored (deduplicating against blobs already present), its row is pointed at
+ * the new blob, and the legacy blob is released once nothing references it anymore.
+ * The migration is resumable: files that already have a content address are skipped.
+ *
+ * Moves files from the flat upload directory into the sharded directory layout.
+ */
+@Service
+public class StorageMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageMigrationService.class);
+
+    private static final int MIGRATION_BATCH_SIZE = 100;
+
+    private final FileRepository fileRepository;
+    private final FileStorageService fileStorageService;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    @Value("${file.storage.migrate-legacy-on-startup:false}")
+    private boolean migrateLegacyOnStartup;
+
+    @Value("${file.storage.migrate-flat-on-startup:false}")
+    private boolean migrateFlatOnStartup;
+
+    @Autowired
+    public StorageMigrationService(FileRepository fileRepository,
+                                   FileStorageService fileStorageService,
+                                   PlatformTransactionManager transactionManager) {
+        this.fileRepository = fileRepository;
+        this.fileStorageService = fileStorageService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Async(AsyncConfig.BACKGROUND_TASK_EXECUTOR)
+    public void migrateOnStartup() {
+        if (migrateLegacyOnStartup) {
+            if (fileStorageService.isContentAddressedMode()) {
+                migrateLegacyFiles(); // Re-stored files land in the sharded layout directly
+            } else {
+                logger.warn("Legacy storage migration requested, but file.storage.content-addressed is disabled. Skipping.");
+            }
+        }
+        if (migrateFlatOnStartup) {
+            migrateToShardedLayout();
+        }
+    }
+
+    /**
+     * Moves files from the flat upload directory into the sharded layout.
+     * Storage identifiers do not change, so no database update is needed.
+     */
+    public void migrateToShardedLayout() {
+        logger.info("Starting migration of flat stored files to the sharded layout");
+        int moved = fileStorageService.relocateFlatFiles();
+        logger.info("Sharded layout migration finished: {} file(s) moved", moved);
+    }
+
+    /**
+     * Migrates every file whose storage identifier is not yet a content address.
+     */
+    public void migrateLegacyFiles() {
+        logger.info("Starting migration of legacy stored files to content-addressed storage");
+        long lastId = 0;
+        int migrated = 0;
+        int failed = 0;
+        while (true) {
+            long afterId = lastId;
+            List<File> slice = readOnlyTransactionTemplate.execute(txStatus ->
+                    fileRepository.findByIdGreaterThanOrderByIdAsc(afterId, Limit.of(MIGRATION_BATCH_SIZE)));
+            if (slice == null || slice.isEmpty()) {
+                break;
+            }
+            for (File file : slice) {
+                lastId = file.getId();
+                if (fileStorageService.isContentAddressed(file.getStorageIdentifier())) {
+                    continue;
+                }
+                try {
+                    migrateFile(file.getId(), file.getStorageIdentifier());
+                    migrated++;
+                } catch (RuntimeException e) {
+                    logger.warn("Could not migrate file ID {} ({}): {}", file.getId(), file.getStorageIdentifier(), e.getMessage());
+                    failed++;
+                }
+            }
+        }
+        logger.info("Legacy storage migration finished: {} file(s) migrated, {} failed", migrated, failed);
+    }
+
+    private void migrateFile(Long fileId, String legacyIdentifier) {
+        Resource legacyResource = fileStorageService.loadFileAsResource(legacyIdentifier);
+        String newIdentifier = transactionTemplate.execute(txStatus -> {
+            StoredObject stored = fileStorageService.storeFile(legacyResource, legacyIdentifier);
+            // Embeddings in FastAPI are keyed by the old path, so the file has to be embedded again
+            int updated = fileRepository.replaceStorageIdentifier(fileId, legacyIdentifier, stored.storageIdentifier());
+            if (updated == 0) {
+                // Deleted or changed concurrently; drop the reference we just created
+                fileStorageService.releaseFile(stored.storageIdentifier());
+            }
+            return stored.storageIdentifier();
+        });
+        fileStorageService.releaseFile(legacyIdentifier);
+        logger.debug("Migrated file ID {} from {} to {}", fileId, legacyIdentifier, newIdentifier);
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.springfile.service;
+
+/**
+ * Result of storing content through FileStorageService.
+ *
+ * @param storageIdentifier The name under which the content is stored.
+ * @param size Number of bytes stored.
+ * @param sha256 Hex SHA-256 digest of the content.
+ * @param deduplicated True if identical content was already stored and has been reused.
+ */
+public record StoredObject(String storageIdentifier, long size, String sha256, boolean deduplicated) {}
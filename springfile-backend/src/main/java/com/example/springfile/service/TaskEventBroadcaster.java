@@ -0,0 +1,143 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.TaskItemEventDto;
+import com.example.springfile.dto.TaskProgressDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Streams task progress to clients as Server-Sent Events, instead of having them poll the status.
+ * A subscriber first receives a "status" event with the current state, then an "item" event
+ * (TaskItemEventDto) for every file as it finishes, and a final "status" event when the task is
+ * done, after which the stream is closed. A reconnecting client (EventSource does this by itself)
+ * starts again from the current state.
+ * Open streams are published as the tasks.events.subscribers gauge.
+ */
+@Component
+public class TaskEventBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskEventBroadcaster.class);
+
+    private static final String STATUS_EVENT = "status";
+    private static final String ITEM_EVENT = "item";
+
+    // Open streams per task ID
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    @Value("${async.tasks.events.timeout:30m}")
+    private Duration streamTimeout;
+
+    @Autowired
+    public TaskEventBroadcaster(MeterRegistry meterRegistry) {
+        Gauge.builder("tasks.events.subscribers", subscribers,
+                        map -> map.values().stream().mapToInt(List::size).sum())
+                .description("Open task progress streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Opens a progress stream for a task, starting with its current status.
+     * The stream of a finished task only carries that status.
+     *
+     * @param currentStatus Reads the task's status; it is read after the stream is registered.
+     */
+    public SseEmitter subscribe(String taskId, Supplier<AsyncTaskManager.TaskStatus> currentStatus) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        subscribers.compute(taskId, (id, taskSubscribers) -> {
+            List<SseEmitter> updated = (taskSubscribers != null) ? taskSubscribers : new CopyOnWriteArrayList<>();
+            updated.add(emitter);
+            return updated;
+        });
+        emitter.onCompletion(() -> unsubscribe(taskId, emitter));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> unsubscribe(taskId, emitter));
+
+        // Read after registering: a later change is published to this stream (a duplicate may be sent),
+        // and a task that finished before registration is seen finished here
+        AsyncTaskManager.TaskStatus status = currentStatus.get();
+        if (status == null || status.isTerminal()) {
+            // If publishStatus already took this stream, it sends the final status and closes it
+            if (unsubscribe(taskId, emitter)) {
+                if (status != null) {
+                    send(emitter, STATUS_EVENT, status);
+                }
+                emitter.complete();
+            }
+            return emitter;
+        }
+        send(emitter, STATUS_EVENT, status);
+        return emitter;
+    }
+
+    public void publishItem(String taskId, Long fileId, String result, TaskProgressDto progress) {
+        List<SseEmitter> taskSubscribers = subscribers.get(taskId);
+        if (taskSubscribers != null) {
+            TaskItemEventDto event = new TaskItemEventDto(fileId, result, progress);
+            taskSubscribers.forEach(emitter -> send(emitter, ITEM_EVENT, event));
+        }
+    }
+
+    /**
+     * Sends a status change; once the task is finished its streams are closed.
+     */
+    public void publishStatus(String taskId, AsyncTaskManager.TaskStatus status) {
+        List<SseEmitter> taskSubscribers = status.isTerminal() ? subscribers.remove(taskId) : subscribers.get(taskId);
+        if (taskSubscribers != null) {
+            taskSubscribers.forEach(emitter -> {
+                send(emitter, STATUS_EVENT, status);
+                if (status.isTerminal()) {
+                    emitter.complete();
+                }
+            });
+        }
+    }
+
+    // Idle streams would be cut by proxies; a comment line keeps them open and detects closed clients
+    @Scheduled(initialDelayString = "${async.tasks.events.heartbeat-interval:15s}",
+               fixedDelayString = "${async.tasks.events.heartbeat-interval:15s}")
+    public void sendHeartbeats() {
+        subscribers.values().forEach(taskSubscribers -> taskSubscribers.forEach(emitter -> {
+            try {
+                emitter.send(SseEmitter.event().comment("keep-alive"));
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }));
+    }
+
+    private void send(SseEmitter emitter, String eventName, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; the error callback unsubscribes the stream
+            logger.debug("Could not send {} event: {}", eventName, e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    // Returns whether the stream was still registered
+    private boolean unsubscribe(String taskId, SseEmitter emitter) {
+        boolean[] removed = new boolean[1];
+        subscribers.computeIfPresent(taskId, (id, taskSubscribers) -> {
+            removed[0] = taskSubscribers.remove(emitter);
+            return taskSubscribers.isEmpty() ? null : taskSubscribers;
+        });
+        return removed[0];
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.TaskProgressDto;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Progress of one background task: the result of each finished file and counters of done,
+ * failed and skipped files.
+ * The three counters live in one immutable {@link Counts} value that every record swaps with a
+ * single compare-and-set, so a reader gets all three as of the same moment with one volatile read
+ * and never blocks a writer. A file's result is put into the map first (with putIfAbsent/replace,
+ * retried if another result of the same file got in between) and counted afterwards, so the
+ * counters never add up to more than the files recorded in the map; they may briefly lag it.
+ */
+final class TaskProgress {
+
+    // Done, failed and skipped files as of one moment
+    private record Counts(int done, int failed, int skipped) {
+        static final Counts ZERO = new Counts(0, 0, 0);
+
+        int get(Kind kind) {
+            return switch (kind) {
+                case DONE -> done;
+                case FAILED -> failed;
+                case SKIPPED -> skipped;
+            };
+        }
+
+        Counts plus(Kind kind, int delta) {
+            return switch (kind) {
+                case DONE -> new Counts(done + delta, failed, skipped);
+                case FAILED -> new Counts(done, failed + delta, skipped);
+                case SKIPPED -> new Counts(done, failed, skipped + delta);
+            };
+        }
+    }
+
+    private enum Kind { DONE, FAILED, SKIPPED }
+
+    private final int total;
+    private final ConcurrentHashMap<Long, String> results;
+    private final AtomicReference<Counts> counts = new AtomicReference<>(Counts.ZERO);
+
+    TaskProgress(int total, Map<Long, String> results) {
+        this.total = total;
+        this.results = new ConcurrentHashMap<>(results);
+        Counts initial = Counts.ZERO;
+        for (String result : this.results.values()) {
+            initial = initial.plus(kindOf(result), 1);
+        }
+        counts.set(initial);
+    }
+
+    /**
+     * Records a file's result. A later result of the same file (e.g. after a retry or a resume)
+     * replaces the earlier one, and the file moves to the counter of its new result.
+     */
+    void record(Long fileId, String result) {
+        Kind newKind = kindOf(result);
+        while (true) {
+            String previous = results.get(fileId);
+            if (previous == null) {
+                if (results.putIfAbsent(fileId, result) == null) {
+                    counts.updateAndGet(current -> current.plus(newKind, 1));
+                    return;
+                }
+            } else if (results.replace(fileId, previous, result)) {
+                Kind oldKind = kindOf(previous);
+                if (oldKind != newKind) {
+                    move(oldKind, newKind);
+                }
+                return;
+            }
+            // Another result of this file got in first; retry against it
+        }
+    }
+
+    TaskProgressDto snapshot() {
+        Counts current = counts.get();
+        return new TaskProgressDto(total, current.done(), current.failed(), current.skipped());
+    }
+
+    // Live, read-only view; iterating it never blocks the workers
+    Map<Long, String> results() {
+        return Collections.unmodifiableMap(results);
+    }
+
+    int total() {
+        return total;
+    }
+
+    int size() {
+        return results.size();
+    }
+
+    // Moves one file between counters in one swap. If results of the same file raced, the swap that
+    // counted its previous result may not have landed yet; wait for it rather than go below zero.
+    private void move(Kind from, Kind to) {
+        while (true) {
+            Counts current = counts.get();
+            if (current.get(from) > 0 && counts.compareAndSet(current, current.plus(from, -1).plus(to, 1))) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static Kind kindOf(String result) {
+        if (result.startsWith("error")) {
+            return Kind.FAILED;
+        }
+        if (result.equals("not_docx") || result.equals("not_found")) {
+            return Kind.SKIPPED;
+        }
+        return Kind.DONE;
+    }
+}
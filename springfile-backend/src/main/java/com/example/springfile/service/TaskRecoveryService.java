@@ -0,0 +1,80 @@
+package com.example.springfile.service;
+
+import com.example.springfile.model.BackgroundTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Resumes background tasks that were interrupted by a shutdown or crash.
+ * On startup every stored task still in the PROCESSING state is put back into the task registry
+ * with the results its files already had, and only its pending files are submitted again
+ * (under the same task ID, so clients keep polling the same status).
+ */
+@Service
+public class TaskRecoveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskRecoveryService.class);
+
+    private final TaskStore taskStore;
+    private final AsyncTaskManager asyncTaskManager;
+    private final PreprocessingService preprocessingService;
+    private final EmbeddingService embeddingService;
+
+    @Value("${async.tasks.resume-on-startup:true}")
+    private boolean resumeOnStartup;
+
+    @Autowired
+    public TaskRecoveryService(TaskStore taskStore,
+                               AsyncTaskManager asyncTaskManager,
+                               PreprocessingService preprocessingService,
+                               EmbeddingService embeddingService) {
+        this.taskStore = taskStore;
+        this.asyncTaskManager = asyncTaskManager;
+        this.preprocessingService = preprocessingService;
+        this.embeddingService = embeddingService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedTasks() {
+        List<TaskStore.StoredTask> unfinished = taskStore.findUnfinished();
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        logger.info("Found {} background task(s) interrupted by a restart", unfinished.size());
+        for (TaskStore.StoredTask stored : unfinished) {
+            String taskId = stored.task().getId();
+            List<Long> pendingFileIds = stored.pendingFileIds();
+            asyncTaskManager.resumeTask(taskId, stored.results().size() + pendingFileIds.size(), stored.results());
+            if (!resumeOnStartup) {
+                asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Interrupted by a restart", null);
+            } else if (pendingFileIds.isEmpty()) {
+                // Every file was done; only the final status had not been written
+                asyncTaskManager.updateTaskStatus(taskId, "COMPLETED", null, null);
+            } else {
+                resume(taskId, stored.task().getType(), stored.results().size(), pendingFileIds);
+            }
+        }
+    }
+
+    private void resume(String taskId, String type, int doneCount, List<Long> pendingFileIds) {
+        logger.info("Task {} - Resuming {} task: {} file(s) pending, {} already done", taskId, type, pendingFileIds.size(), doneCount);
+        try {
+            switch (type) {
+                case BackgroundTask.TYPE_PREPROCESS -> preprocessingService.preprocessFilesAsync(pendingFileIds, taskId);
+                case BackgroundTask.TYPE_EMBEDDING -> embeddingService.requestEmbeddingsAsync(pendingFileIds, taskId);
+                default -> asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Unknown task type: " + type, null);
+            }
+        } catch (TaskRejectedException e) {
+            logger.warn("Task {} - Could not be resumed, background executor is saturated: {}", taskId, e.getMessage());
+            asyncTaskManager.updateTaskStatus(taskId, "FAILED", "Interrupted by a restart and could not be resumed", null);
+        }
+    }
+}
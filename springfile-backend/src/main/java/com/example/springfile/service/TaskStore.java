@@ -0,0 +1,251 @@
+package com.example.springfile.service;
+
+import com.example.springfile.model.BackgroundTask;
+import com.example.springfile.model.BackgroundTaskItem;
+import com.example.springfile.repository.BackgroundTaskItemRepository;
+import com.example.springfile.repository.BackgroundTaskRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persists background tasks and the outcome of each of their files (BackgroundTask, BackgroundTaskItem).
+ *
+ * Per-file results are written behind: they are queued in memory and written with one JDBC batch
+ * once {@code async.tasks.flush-batch-size} results are queued or every {@code async.tasks.flush-interval},
+ * so a large job does not commit once per file. Results still queued when the process dies are
+ * lost; those files are simply processed again when the task is resumed. The final status of a
+ * task is written synchronously, together with all of its results.
+ * Finished tasks are purged after {@code async.tasks.retention}.
+ */
+@Service
+public class TaskStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskStore.class);
+
+    private static final String UPDATE_ITEM_RESULT_SQL =
+            "update background_task_item set result = ? where task_id = ? and file_id = ?";
+    private static final Set<String> FINISHED_STATUSES = Set.of("COMPLETED", "FAILED");
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    private final BackgroundTaskRepository backgroundTaskRepository;
+    private final BackgroundTaskItemRepository backgroundTaskItemRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    // Write-behind queue of per-file results
+    private final ConcurrentLinkedQueue<ItemResult> pendingResults = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    @Value("${async.tasks.flush-batch-size:200}")
+    private int flushBatchSize;
+    @Value("${async.tasks.retention:7d}")
+    private Duration retention;
+
+    private record ItemResult(String taskId, Long fileId, String result) {}
+
+    /**
+     * A task as stored: its row, the results recorded so far and the files still pending.
+     */
+    public record StoredTask(BackgroundTask task, Map<Long, String> results, List<Long> pendingFileIds) {}
+
+    @Autowired
+    public TaskStore(BackgroundTaskRepository backgroundTaskRepository,
+                     BackgroundTaskItemRepository backgroundTaskItemRepository,
+                     JdbcTemplate jdbcTemplate,
+                     PlatformTransactionManager transactionManager) {
+        this.backgroundTaskRepository = backgroundTaskRepository;
+        this.backgroundTaskItemRepository = backgroundTaskItemRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Stores a new task with one pending item per (distinct) file, before any work starts.
+     */
+    public void create(String taskId, String type, Collection<Long> fileIds) {
+        transactionTemplate.executeWithoutResult(txStatus -> {
+            backgroundTaskRepository.save(new BackgroundTask(taskId, type, "PROCESSING"));
+            List<BackgroundTaskItem> items = new LinkedHashSet<>(fileIds).stream()
+                    .map(fileId -> new BackgroundTaskItem(taskId, fileId))
+                    .toList();
+            backgroundTaskItemRepository.saveAll(items); // Batched inserts (hibernate.jdbc.batch_size)
+        });
+    }
+
+    /**
+     * Queues a file's result; it is written with the next batch.
+     */
+    public void recordItemResult(String taskId, Long fileId, String result) {
+        pendingResults.add(new ItemResult(taskId, fileId, truncate(result, BackgroundTaskItem.RESULT_MAX_LENGTH)));
+        if (pendingCount.incrementAndGet() >= flushBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a file's result as part of the caller's transaction, for work that must not be
+     * repeated after a restart (e.g. a result that created a new file row).
+     */
+    public void recordItemResultInTransaction(String taskId, Long fileId, String result) {
+        backgroundTaskItemRepository.updateResult(taskId, fileId, truncate(result, BackgroundTaskItem.RESULT_MAX_LENGTH));
+    }
+
+    /**
+     * Writes all queued results in one batch.
+     */
+    @Scheduled(initialDelayString = "${async.tasks.flush-interval:1s}", fixedDelayString = "${async.tasks.flush-interval:1s}")
+    public void flush() {
+        if (pendingResults.isEmpty()) {
+            return;
+        }
+        flushLock.lock(); // One writer at a time, so results of the same file are written in order
+        try {
+            List<ItemResult> batch = new ArrayList<>();
+            ItemResult next;
+            while ((next = pendingResults.poll()) != null) {
+                batch.add(next);
+            }
+            pendingCount.addAndGet(-batch.size());
+            if (batch.isEmpty()) {
+                return; // Drained by the previous writer
+            }
+            try {
+                transactionTemplate.executeWithoutResult(txStatus -> batchUpdateResults(batch));
+            } catch (RuntimeException e) {
+                logger.warn("Could not write {} task result(s), retrying with the next flush: {}", batch.size(), e.getMessage());
+                pendingResults.addAll(batch);
+                pendingCount.addAndGet(batch.size());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void batchUpdateResults(List<ItemResult> batch) {
+        jdbcTemplate.batchUpdate(UPDATE_ITEM_RESULT_SQL, batch, batch.size(), (ps, item) -> {
+            ps.setString(1, item.result());
+            ps.setString(2, item.taskId());
+            ps.setLong(3, item.fileId());
+        });
+    }
+
+    /**
+     * Stores a task's status. For a finished task, all of its results are written with it, so the
+     * stored task is complete once this returns.
+     *
+     * @return false if the task is not stored.
+     */
+    public boolean updateStatus(String taskId, String status, String message, Map<Long, String> results) {
+        if (results != null && !results.isEmpty()) {
+            flush(); // Older queued results must not overwrite the final ones
+        }
+        Boolean updated = transactionTemplate.execute(txStatus -> {
+            int rows = backgroundTaskRepository.updateStatus(taskId, status,
+                    truncate(message, BackgroundTask.MESSAGE_MAX_LENGTH), LocalDateTime.now());
+            if (rows > 0 && results != null && !results.isEmpty()) {
+                List<ItemResult> finalResults = results.entrySet().stream()
+                        .map(entry -> new ItemResult(taskId, entry.getKey(), truncate(entry.getValue(), BackgroundTaskItem.RESULT_MAX_LENGTH)))
+                        .toList();
+                batchUpdateResults(finalResults);
+            }
+            return rows > 0;
+        });
+        return Boolean.TRUE.equals(updated);
+    }
+
+    public Optional<StoredTask> load(String taskId) {
+        return readOnlyTransactionTemplate.execute(txStatus ->
+                backgroundTaskRepository.findById(taskId).map(this::toStoredTask));
+    }
+
+    /**
+     * Tasks that were still running when the application stopped.
+     */
+    public List<StoredTask> findUnfinished() {
+        return readOnlyTransactionTemplate.execute(txStatus ->
+                backgroundTaskRepository.findByStatus("PROCESSING").stream()
+                        .map(this::toStoredTask)
+                        .toList());
+    }
+
+    private StoredTask toStoredTask(BackgroundTask task) {
+        Map<Long, String> results = new LinkedHashMap<>();
+        List<Long> pendingFileIds = new ArrayList<>();
+        for (BackgroundTaskItem item : backgroundTaskItemRepository.findByTaskIdOrderByIdAsc(task.getId())) {
+            if (item.getResult() != null) {
+                results.put(item.getFileId(), item.getResult());
+            } else {
+                pendingFileIds.add(item.getFileId());
+            }
+        }
+        return new StoredTask(task, results, pendingFileIds);
+    }
+
+    public void delete(String taskId) {
+        transactionTemplate.executeWithoutResult(txStatus -> {
+            backgroundTaskItemRepository.deleteByTaskIds(List.of(taskId));
+            backgroundTaskRepository.deleteByIds(List.of(taskId));
+        });
+    }
+
+    /**
+     * Removes finished tasks older than the retention period, a slice at a time.
+     */
+    @Scheduled(initialDelayString = "${async.tasks.purge-interval:1h}", fixedDelayString = "${async.tasks.purge-interval:1h}")
+    public void purgeFinishedTasks() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        int purged = 0;
+        List<String> taskIds;
+        do {
+            taskIds = backgroundTaskRepository.findIdsByStatusInAndUpdatedAtBefore(FINISHED_STATUSES, cutoff, Limit.of(PURGE_BATCH_SIZE));
+            if (!taskIds.isEmpty()) {
+                List<String> slice = taskIds;
+                transactionTemplate.executeWithoutResult(txStatus -> {
+                    backgroundTaskItemRepository.deleteByTaskIds(slice);
+                    backgroundTaskRepository.deleteByIds(slice);
+                });
+                purged += slice.size();
+            }
+        } while (taskIds.size() == PURGE_BATCH_SIZE);
+        if (purged > 0) {
+            logger.info("Purged {} finished task(s) older than {}", purged, retention);
+        }
+    }
+
+    // Results still queued at shutdown would otherwise be processed again after the restart
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return (value != null && value.length() > maxLength) ? value.substring(0, maxLength) : value;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.TaskProgressDto;
+import com.example.springfile.model.BackgroundTask;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AsyncTaskManagerTest {
+
+	private static final Duration COMPLETED_TTL = Duration.ofMillis(300);
+
+	private TaskStore taskStore;
+	private TaskEventBroadcaster taskEventBroadcaster;
+
+	@BeforeEach
+	void setUp() {
+		taskStore = mock(TaskStore.class);
+		taskEventBroadcaster = mock(TaskEventBroadcaster.class);
+		when(taskStore.updateStatus(anyString(), anyString(), any(), any())).thenReturn(true);
+		when(taskStore.load(anyString())).thenReturn(Optional.empty()); // Only the in-memory registry is under test
+	}
+
+	@Test
+	void runningTasksWeighNothingAndFinishedTasksWeighTheirResults() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "EMBEDDING", List.of(1L, 2L, 3L));
+		manager.recordItemResult("t1", 1L, "embedded");
+
+		assertThat(manager.getTaskStatus("t1").weight()).isZero();
+
+		manager.updateTaskStatus("t1", "COMPLETED", null, Map.of(1L, "embedded", 2L, "embedded", 3L, "not_found"));
+
+		assertThat(manager.getTaskStatus("t1").weight()).isEqualTo(4);
+	}
+
+	@Test
+	void finishedTasksExpireAfterTheCompletedTtlWhileRunningTasksStay() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("finished", "EMBEDDING", List.of(1L));
+		manager.registerTask("running", "EMBEDDING", List.of(2L));
+		manager.updateTaskStatus("finished", "COMPLETED", null, Map.of(1L, "embedded"));
+
+		// Polling does not keep a finished task alive
+		assertEventually(() -> manager.getTaskStatus("finished") == null);
+		assertThat(manager.getTaskStatus("running")).isNotNull();
+	}
+
+	@Test
+	void finishedTasksAreEvictedBeyondTheMaximumWeightButRunningTasksAreNot() {
+		AsyncTaskManager manager = newManager(10);
+		manager.registerTask("running", "EMBEDDING", List.of(100L));
+		for (long id = 1; id <= 50; id++) {
+			manager.recordItemResult("running", id, "embedded"); // A running task's results add no weight
+		}
+		for (int i = 0; i < 3; i++) {
+			manager.registerTask("finished-" + i, "EMBEDDING", List.of(1L, 2L, 3L, 4L));
+			manager.updateTaskStatus("finished-" + i, "COMPLETED", null,
+					Map.of(1L, "embedded", 2L, "embedded", 3L, "embedded", 4L, "embedded")); // Weight 5 each
+		}
+
+		assertEventually(() -> List.of("finished-0", "finished-1", "finished-2").stream()
+				.filter(taskId -> manager.getTaskStatus(taskId) != null)
+				.count() <= 2);
+		assertThat(manager.getTaskStatus("running")).isNotNull();
+	}
+
+	@Test
+	void updateOfARemovedTaskDoesNotBringItBack() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "PREPROCESS", List.of(1L));
+		manager.removeTask("t1");
+		when(taskStore.updateStatus(eq("t1"), anyString(), any(), any())).thenReturn(false); // Row deleted
+
+		manager.updateTaskStatus("t1", "COMPLETED");
+
+		assertThat(manager.getTaskStatus("t1")).isNull();
+	}
+
+	@Test
+	void statusStaysReadableWhileTheStoreIsWrittenAndIsPublishedAfterIt() throws Exception {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "EMBEDDING", List.of(1L));
+		CountDownLatch storeWriteStarted = new CountDownLatch(1);
+		CountDownLatch releaseStoreWrite = new CountDownLatch(1);
+		when(taskStore.updateStatus(eq("t1"), anyString(), any(), any())).thenAnswer(invocation -> {
+			storeWriteStarted.countDown();
+			releaseStoreWrite.await();
+			return true;
+		});
+
+		CompletableFuture<Void> update = CompletableFuture.runAsync(
+				() -> manager.updateTaskStatus("t1", "COMPLETED", null, Map.of(1L, "embedded")));
+		assertThat(storeWriteStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+		manager.recordItemResult("t1", 1L, "embedded");
+		assertThat(manager.getTaskStatus("t1").getStatus()).isEqualTo("PROCESSING");
+		verify(taskEventBroadcaster, never()).publishStatus(eq("t1"), any());
+
+		releaseStoreWrite.countDown();
+		update.get(5, TimeUnit.SECONDS);
+		assertThat(manager.getTaskStatus("t1").getStatus()).isEqualTo("COMPLETED");
+		verify(taskEventBroadcaster).publishStatus(eq("t1"), any());
+	}
+
+	@Test
+	void resultRecordedInATransactionIsShownOnlyAfterCommit() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "PREPROCESS", List.of(1L, 2L));
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			manager.recordItemResultInTransaction("t1", 1L, "processed:9");
+
+			assertThat(manager.getTaskStatus("t1").getResults()).isEmpty();
+			verify(taskEventBroadcaster, never()).publishItem(eq("t1"), any(), any(), any());
+
+			TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertThat(manager.getTaskStatus("t1").getResults()).containsEntry(1L, "processed:9");
+		verify(taskEventBroadcaster).publishItem(eq("t1"), eq(1L), eq("processed:9"), any());
+	}
+
+	@Test
+	void resultRecordedInARolledBackTransactionIsNeverShown() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "PREPROCESS", List.of(1L));
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			manager.recordItemResultInTransaction("t1", 1L, "processed:9");
+			TransactionSynchronizationManager.getSynchronizations()
+					.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertThat(manager.getTaskStatus("t1").getResults()).isEmpty();
+		verify(taskEventBroadcaster, never()).publishItem(eq("t1"), any(), any(), any());
+	}
+
+	@Test
+	void statusIsLoadedOutsideTheRegistryAndAConcurrentUpdateWins() throws Exception {
+		AsyncTaskManager manager = newManager(100_000);
+		CountDownLatch loadStarted = new CountDownLatch(1);
+		CountDownLatch releaseLoad = new CountDownLatch(1);
+		BackgroundTask storedTask = new BackgroundTask();
+		storedTask.setStatus("PROCESSING");
+		when(taskStore.load("t1")).thenAnswer(invocation -> {
+			loadStarted.countDown();
+			releaseLoad.await();
+			return Optional.of(new TaskStore.StoredTask(storedTask, Map.of(), List.of(1L)));
+		});
+
+		CompletableFuture<AsyncTaskManager.TaskStatus> read = CompletableFuture.supplyAsync(() -> manager.getTaskStatus("t1"));
+		assertThat(loadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// Does not wait for the load
+		CompletableFuture.runAsync(() -> manager.updateTaskStatus("t1", "COMPLETED", null, Map.of(1L, "embedded")))
+				.get(5, TimeUnit.SECONDS);
+
+		releaseLoad.countDown();
+		assertThat(read.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo("COMPLETED");
+		assertThat(manager.getTaskStatus("t1").getStatus()).isEqualTo("COMPLETED");
+	}
+
+	@Test
+	void earlierErrorsFailAResumedTask() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.resumeTask("t1", 2, Map.of(1L, "error: FastAPI unavailable"));
+
+		manager.updateTaskStatus("t1", "COMPLETED", null, Map.of(2L, "embedded"));
+
+		AsyncTaskManager.TaskStatus status = manager.getTaskStatus("t1");
+		assertThat(status.getStatus()).isEqualTo("FAILED");
+		assertThat(status.getMessage()).isEqualTo("Error in ID 1: FastAPI unavailable");
+		assertThat(status.getResults()).containsOnlyKeys(1L, 2L);
+	}
+
+	@Test
+	void progressCountsDistinctFilesAndFollowsRecordedResults() {
+		AsyncTaskManager manager = newManager(100_000);
+		manager.registerTask("t1", "PREPROCESS", List.of(1L, 2L, 2L, 3L));
+		manager.recordItemResult("t1", 1L, "not_docx");
+		manager.recordItemResult("t1", 2L, "error: FastAPI unavailable");
+
+		assertThat(manager.getTaskStatus("t1").getProgress()).isEqualTo(new TaskProgressDto(3, 0, 1, 1));
+	}
+
+	private AsyncTaskManager newManager(long maxWeight) {
+		return new AsyncTaskManager(taskStore, taskEventBroadcaster, maxWeight, COMPLETED_TTL, Duration.ofHours(1),
+				new SimpleMeterRegistry());
+	}
+
+	// Expiry and eviction run in the cache's background maintenance
+	private static void assertEventually(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met within 5s").isLessThan(deadline);
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.UploadInitRequestDto;
+import com.example.springfile.model.File;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChunkedUploadServiceTest {
+
+	@TempDir
+	Path tempDir;
+
+	private FileService fileService;
+	private FileStorageService fileStorageService;
+	private ChunkedUploadService chunkedUploadService;
+	private Path partialFile;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		fileService = mock(FileService.class);
+		fileStorageService = mock(FileStorageService.class);
+		partialFile = Files.createFile(tempDir.resolve("upload.part"));
+		when(fileStorageService.createPartialFile(anyString(), anyLong())).thenReturn(partialFile);
+
+		chunkedUploadService = new ChunkedUploadService(fileService, fileStorageService);
+		ReflectionTestUtils.setField(chunkedUploadService, "defaultChunkSize", DataSize.ofMegabytes(1));
+		ReflectionTestUtils.setField(chunkedUploadService, "maxUploadSize", DataSize.ofGigabytes(1));
+		ReflectionTestUtils.setField(chunkedUploadService, "sessionTimeout", Duration.ofHours(1));
+	}
+
+	@Test
+	void transientFailureKeepsTheUploadSoItCanBeCompletedAgain() {
+		String uploadId = startUploadWithAllChunks();
+		File saved = new File();
+		saved.setId(7L);
+		when(completion(uploadId))
+				.thenThrow(new RuntimeException("Lock timeout"))
+				.thenReturn(saved);
+
+		assertThatThrownBy(() -> chunkedUploadService.completeUpload(uploadId)).hasMessage("Lock timeout");
+		verify(fileStorageService, never()).deletePartialFile(uploadId);
+		assertThat(chunkedUploadService.getUpload(uploadId).getMissingChunks()).isEmpty();
+
+		assertThat(chunkedUploadService.completeUpload(uploadId)).isSameAs(saved);
+		verify(fileStorageService).deletePartialFile(uploadId);
+		assertNotFound(uploadId);
+	}
+
+	@Test
+	void checksumMismatchDiscardsTheUpload() {
+		String uploadId = startUploadWithAllChunks();
+		when(completion(uploadId))
+				.thenThrow(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Checksum mismatch"));
+
+		assertThatThrownBy(() -> chunkedUploadService.completeUpload(uploadId)).isInstanceOf(ResponseStatusException.class);
+		verify(fileStorageService).deletePartialFile(uploadId);
+		assertNotFound(uploadId);
+	}
+
+	@Test
+	void failureAfterTheFileWasMovedDiscardsTheUpload() throws IOException {
+		String uploadId = startUploadWithAllChunks();
+		when(completion(uploadId)).thenAnswer(invocation -> {
+			Files.delete(partialFile); // Moved into storage, then the commit failed
+			throw new RuntimeException("Commit failed");
+		});
+
+		assertThatThrownBy(() -> chunkedUploadService.completeUpload(uploadId)).hasMessage("Commit failed");
+		assertNotFound(uploadId);
+	}
+
+	@Test
+	void uploadBeingCompletedIsNotRemovedAsStale() {
+		String uploadId = startUploadWithAllChunks();
+		ReflectionTestUtils.setField(chunkedUploadService, "sessionTimeout", Duration.ZERO);
+		when(completion(uploadId)).thenAnswer(invocation -> {
+			chunkedUploadService.removeStaleUploads(); // Runs while the completion is still in progress
+			return new File();
+		});
+
+		chunkedUploadService.completeUpload(uploadId);
+
+		verify(fileStorageService).deletePartialFile(uploadId); // Once, by the completion itself
+	}
+
+	private String startUploadWithAllChunks() {
+		UploadInitRequestDto request = new UploadInitRequestDto("a.bin", 10L, null, 1L, null, null, null);
+		String uploadId = chunkedUploadService.startUpload(request).getUploadId();
+		chunkedUploadService.writeChunk(uploadId, 0, new ByteArrayInputStream(new byte[10]));
+		return uploadId;
+	}
+
+	private File completion(String uploadId) {
+		return fileService.uploadAssembledFile(eq(partialFile), eq("a.bin"), any(), any(), eq(1L), any());
+	}
+
+	private void assertNotFound(String uploadId) {
+		assertThatThrownBy(() -> chunkedUploadService.getUpload(uploadId))
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND));
+	}
+}
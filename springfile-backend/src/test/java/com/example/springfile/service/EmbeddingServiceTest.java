@@ -0,0 +1,126 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.FastApiClientProperties;
+import com.example.springfile.model.File;
+import com.example.springfile.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingServiceTest {
+
+	private FileRepository fileRepository;
+	private AsyncTaskManager asyncTaskManager;
+	private final AtomicInteger embeddingCalls = new AtomicInteger();
+	private HttpStatus responseStatus = HttpStatus.OK;
+	private EmbeddingService embeddingService;
+
+	@BeforeEach
+	void setUp() {
+		fileRepository = mock(FileRepository.class);
+		asyncTaskManager = mock(AsyncTaskManager.class);
+		FileStorageService fileStorageService = mock(FileStorageService.class);
+		when(fileStorageService.resolveRelativePath(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+		FastApiResilience fastApiResilience = mock(FastApiResilience.class);
+		when(fastApiResilience.guardQueued(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+		WebClient webClient = WebClient.builder()
+				.exchangeFunction(request -> {
+					embeddingCalls.incrementAndGet();
+					return Mono.just(ClientResponse.create(responseStatus).build());
+				})
+				.build();
+		when(fileRepository.markEmbedded(anyCollection())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
+
+		embeddingService = new EmbeddingService(fileRepository, fileStorageService, webClient, asyncTaskManager,
+				mock(PlatformTransactionManager.class), mock(SearchResultCache.class), new FastApiClientProperties(),
+				fastApiResilience);
+		ReflectionTestUtils.setField(embeddingService, "embeddingConcurrency", 2);
+		ReflectionTestUtils.setField(embeddingService, "updateBatchSize", 10);
+		ReflectionTestUtils.setField(embeddingService, "updateMaxDelay", Duration.ofMillis(50));
+	}
+
+	@Test
+	void reEmbeddingAnEmbeddedFileStillCallsTheEndpoint() {
+		when(fileRepository.findAllById(any())).thenReturn(List.of(file(1L, "ab/abc.docx", true)));
+		// Only other files sharing the blob count; the requested file is excluded by the query
+		when(fileRepository.findEmbeddedStorageIdentifiers(anyCollection(), eq(List.of(1L)))).thenReturn(Set.of());
+
+		embeddingService.requestEmbeddingsAsync(List.of(1L), "t1");
+
+		assertThat(embeddingCalls).hasValue(1);
+		verify(fileRepository).markEmbedded(List.of(1L));
+		verify(asyncTaskManager).recordItemResult("t1", 1L, "embedded");
+	}
+
+	@Test
+	void contentEmbeddedThroughAnotherFileIsMarkedWithoutCallingTheEndpoint() {
+		when(fileRepository.findAllById(any())).thenReturn(List.of(file(2L, "ab/abc.docx", false)));
+		when(fileRepository.findEmbeddedStorageIdentifiers(anyCollection(), eq(List.of(2L)))).thenReturn(Set.of("ab/abc.docx"));
+
+		embeddingService.requestEmbeddingsAsync(List.of(2L), "t1");
+
+		assertThat(embeddingCalls).hasValue(0);
+		verify(fileRepository).markEmbedded(List.of(2L));
+		verify(asyncTaskManager).recordItemResult("t1", 2L, "embedded");
+	}
+
+	@Test
+	void repeatedIdIsEmbeddedMarkedAndReportedOnce() {
+		when(fileRepository.findAllById(any())).thenReturn(List.of(file(3L, "cd/cde.docx", false)));
+		when(fileRepository.findEmbeddedStorageIdentifiers(anyCollection(), anyCollection())).thenReturn(Set.of());
+
+		embeddingService.requestEmbeddingsAsync(List.of(3L, 3L), "t1");
+
+		assertThat(embeddingCalls).hasValue(1);
+		verify(fileRepository).markEmbedded(List.of(3L));
+		verify(asyncTaskManager).recordItemResult("t1", 3L, "embedded");
+	}
+
+	@Test
+	void failedCallIsReportedOffTheHttpClientThread() {
+		responseStatus = HttpStatus.SERVICE_UNAVAILABLE;
+		when(fileRepository.findAllById(any())).thenReturn(List.of(file(4L, "ef/efg.docx", false)));
+		when(fileRepository.findEmbeddedStorageIdentifiers(anyCollection(), anyCollection())).thenReturn(Set.of());
+		AtomicReference<String> reportingThread = new AtomicReference<>();
+		doAnswer(invocation -> {
+			reportingThread.set(Thread.currentThread().getName());
+			return null;
+		}).when(asyncTaskManager).recordItemResult(eq("t1"), eq(4L), anyString());
+
+		embeddingService.requestEmbeddingsAsync(List.of(4L), "t1");
+
+		verify(asyncTaskManager).recordItemResult("t1", 4L, "error: FastAPI embedding call failed with status 503 SERVICE_UNAVAILABLE");
+		assertThat(reportingThread.get()).startsWith("boundedElastic");
+		verify(fileRepository, never()).markEmbedded(anyCollection());
+	}
+
+	private static File file(Long id, String storageIdentifier, boolean embedding) {
+		File file = new File();
+		file.setId(id);
+		file.setStorageIdentifier(storageIdentifier);
+		file.setEmbedding(embedding);
+		return file;
+	}
+}
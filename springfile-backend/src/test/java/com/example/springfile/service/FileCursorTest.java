@@ -0,0 +1,64 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.FileDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileCursorTest {
+
+	private static final LocalDateTime UPLOADED = LocalDateTime.of(2025, 4, 17, 17, 59, 24, 584775000);
+
+	@Test
+	void encodedCursorDecodesToTheSameKey() {
+		FileDto file = new FileDto(72L, "a.pdf", "application/pdf", 1, UPLOADED, "Docs", null, false);
+
+		String cursor = FileService.FileCursor.encode(FileService.FileCursor.NEXT, file);
+		FileService.FileCursor decoded = FileService.FileCursor.decode(cursor);
+
+		assertThat(cursor).doesNotContain("=", "+", "/");
+		assertThat(decoded).isEqualTo(new FileService.FileCursor(FileService.FileCursor.NEXT, UPLOADED, 72L));
+	}
+
+	@Test
+	void previousCursorKeepsItsDirection() {
+		FileDto file = new FileDto(5L, "b.txt", "text/plain", 1, UPLOADED, "Docs", null, false);
+
+		FileService.FileCursor decoded = FileService.FileCursor.decode(
+				FileService.FileCursor.encode(FileService.FileCursor.PREV, file));
+
+		assertThat(decoded.direction()).isEqualTo(FileService.FileCursor.PREV);
+	}
+
+	@Test
+	void cursorThatIsNotBase64IsRejectedWith400() {
+		assertRejected("not base64 at all!");
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {
+			"",
+			"x|2025-04-17T17:59:24|72",
+			"n|2025-04-17T17:59:24",
+			"n|2025-04-17T17:59:24|72|1",
+			"n|yesterday|72",
+			"n|2025-04-17T17:59:24|seventy-two"})
+	void malformedCursorIsRejectedWith400(String raw) {
+		assertRejected(Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static void assertRejected(String cursor) {
+		assertThatThrownBy(() -> FileService.FileCursor.decode(cursor))
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+	}
+}
@@ -0,0 +1,36 @@
+package com.example.springfile.service;
+
+import com.example.springfile.config.CacheConfig;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchResultCacheTest {
+
+	private final SearchResultCache cache = new SearchResultCache(new ConcurrentMapCacheManager(CacheConfig.SEARCH_RESULTS_CACHE));
+
+	@Test
+	void resultOfASearchStartedBeforeAnInvalidationIsNotCached() {
+		long generation = cache.generation();
+		cache.invalidate();
+
+		cache.put("apple|5", JsonNodeFactory.instance.arrayNode(), generation);
+
+		assertThat(cache.get("apple|5")).isNull();
+	}
+
+	@Test
+	void resultOfACurrentSearchIsCached() {
+		cache.put("apple|5", JsonNodeFactory.instance.arrayNode(), cache.generation());
+
+		assertThat(cache.get("apple|5")).isNotNull();
+	}
+
+	@Test
+	void keyIgnoresWhitespaceButNotCase() {
+		assertThat(SearchResultCache.key("  red\t apple ", 5)).isEqualTo(SearchResultCache.key("red apple", 5));
+		assertThat(SearchResultCache.key("Apple", 5)).isNotEqualTo(SearchResultCache.key("apple", 5));
+	}
+}
@@ -0,0 +1,52 @@
+package com.example.springfile.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SizeLimitedInputStreamTest {
+
+	@Test
+	void contentUpToTheLimitIsReadCompletely() throws IOException {
+		InputStream in = new FileService.SizeLimitedInputStream(new ByteArrayInputStream(new byte[100]), 100);
+
+		assertThat(in.readAllBytes()).hasSize(100);
+	}
+
+	@Test
+	void bulkReadPastTheLimitFailsWith413() {
+		InputStream in = new FileService.SizeLimitedInputStream(new ByteArrayInputStream(new byte[101]), 100);
+
+		assertThatThrownBy(() -> in.transferTo(OutputStream.nullOutputStream()))
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+	}
+
+	@Test
+	void singleByteReadPastTheLimitFailsWith413() throws IOException {
+		InputStream in = new FileService.SizeLimitedInputStream(new ByteArrayInputStream(new byte[3]), 2);
+		in.read();
+		in.read();
+
+		assertThatThrownBy(in::read)
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+	}
+
+	@Test
+	void endOfStreamIsNotCounted() throws IOException {
+		InputStream in = new FileService.SizeLimitedInputStream(new ByteArrayInputStream(new byte[2]), 2);
+
+		assertThat(in.readNBytes(2)).hasSize(2);
+		assertThat(in.read()).isEqualTo(-1);
+		assertThat(in.read(new byte[8], 0, 8)).isEqualTo(-1);
+	}
+}
@@ -0,0 +1,52 @@
+package com.example.springfile.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskEventBroadcasterTest {
+
+	private SimpleMeterRegistry meterRegistry;
+	private TaskEventBroadcaster broadcaster;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		broadcaster = new TaskEventBroadcaster(meterRegistry);
+		ReflectionTestUtils.setField(broadcaster, "streamTimeout", Duration.ofMinutes(30));
+	}
+
+	@Test
+	void taskFinishedBeforeTheStreamWasRegisteredClosesTheStream() {
+		// The controller saw the task running; it finished before the stream was registered
+		broadcaster.subscribe("t1", () -> new AsyncTaskManager.TaskStatus("COMPLETED"));
+
+		assertThat(openStreams()).isZero();
+	}
+
+	@Test
+	void statusPublishedWhileSubscribingReachesTheStream() {
+		broadcaster.subscribe("t1", () -> {
+			broadcaster.publishStatus("t1", new AsyncTaskManager.TaskStatus("COMPLETED")); // Takes and closes the stream
+			return new AsyncTaskManager.TaskStatus("COMPLETED");
+		});
+
+		assertThat(openStreams()).isZero();
+	}
+
+	@Test
+	void runningTaskKeepsItsStreamOpen() {
+		broadcaster.subscribe("t1", () -> new AsyncTaskManager.TaskStatus("PROCESSING"));
+
+		assertThat(openStreams()).isEqualTo(1);
+	}
+
+	private double openStreams() {
+		return meterRegistry.get("tasks.events.subscribers").gauge().value();
+	}
+}
@@ -0,0 +1,138 @@
+package com.example.springfile.service;
+
+import com.example.springfile.dto.TaskProgressDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskProgressTest {
+
+	@Test
+	void resultsAreCountedByKind() {
+		TaskProgress progress = new TaskProgress(6, Map.of());
+		progress.record(1L, "embedded");
+		progress.record(2L, "processed_new_file_id=9");
+		progress.record(3L, "error: FastAPI unavailable");
+		progress.record(4L, "not_docx");
+		progress.record(5L, "not_found");
+
+		assertThat(progress.snapshot()).isEqualTo(new TaskProgressDto(6, 2, 1, 2));
+		assertThat(progress.results()).hasSize(5);
+	}
+
+	@Test
+	void earlierResultsAreCounted() {
+		TaskProgress progress = new TaskProgress(3, Map.of(1L, "embedded", 2L, "error: timeout"));
+
+		assertThat(progress.snapshot()).isEqualTo(new TaskProgressDto(3, 1, 1, 0));
+	}
+
+	@Test
+	void repeatedResultIsCountedOnce() {
+		TaskProgress progress = new TaskProgress(1, Map.of());
+		progress.record(1L, "embedded");
+		progress.record(1L, "embedded");
+
+		assertThat(progress.snapshot()).isEqualTo(new TaskProgressDto(1, 1, 0, 0));
+	}
+
+	@Test
+	void replacedResultMovesTheFileToItsNewCounter() {
+		TaskProgress progress = new TaskProgress(2, Map.of(1L, "error: timeout"));
+		progress.record(2L, "not_found");
+
+		progress.record(1L, "embedded"); // Retried after a resume
+
+		assertThat(progress.snapshot()).isEqualTo(new TaskProgressDto(2, 1, 0, 1));
+		assertThat(progress.results()).containsEntry(1L, "embedded");
+	}
+
+	@Test
+	void concurrentWorkersKeepCountersInLineWithResults() throws Exception {
+		TaskProgress progress = new TaskProgress(4_000, Map.of());
+		String[] kinds = {"embedded", "error: x", "not_found"};
+		ExecutorService workers = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int worker = 0; worker < 8; worker++) {
+				int offset = worker;
+				// Every worker records every file, so results of the same file race with each other
+				futures.add(workers.submit(() -> {
+					for (int round = 0; round < 5; round++) {
+						for (long id = 0; id < 4_000; id++) {
+							progress.record(id, kinds[(int) ((id + offset + round) % kinds.length)]);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+
+		Map<Long, String> results = progress.results();
+		long done = results.values().stream().filter("embedded"::equals).count();
+		long failed = results.values().stream().filter(result -> result.startsWith("error")).count();
+		long skipped = results.values().stream().filter("not_found"::equals).count();
+		assertThat(results).hasSize(4_000);
+		assertThat(progress.snapshot()).isEqualTo(new TaskProgressDto(4_000, (int) done, (int) failed, (int) skipped));
+	}
+
+	@Test
+	void snapshotsNeverCountMoreFilesThanWereRecorded() throws Exception {
+		TaskProgress progress = new TaskProgress(20_000, Map.of());
+		String[] kinds = {"embedded", "error: x", "not_found"};
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<String> violations = new CopyOnWriteArrayList<>();
+		ExecutorService threads = Executors.newFixedThreadPool(6);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int worker = 0; worker < 4; worker++) {
+				int offset = worker;
+				writers.add(threads.submit(() -> {
+					for (long id = 0; id < 20_000; id++) {
+						progress.record(id, kinds[(int) ((id + offset) % kinds.length)]);
+					}
+				}));
+			}
+			List<Future<?>> readers = new ArrayList<>();
+			for (int reader = 0; reader < 2; reader++) {
+				readers.add(threads.submit(() -> {
+					while (writing.get()) {
+						TaskProgressDto snapshot = progress.snapshot();
+						int recorded = progress.size(); // Read after the snapshot; the map only grows
+						int counted = snapshot.getDone() + snapshot.getFailed() + snapshot.getSkipped();
+						if (counted > recorded || snapshot.getDone() < 0 || snapshot.getFailed() < 0 || snapshot.getSkipped() < 0) {
+							violations.add(snapshot + " with " + recorded + " recorded");
+						}
+					}
+				}));
+			}
+			for (Future<?> writer : writers) {
+				writer.get(30, TimeUnit.SECONDS);
+			}
+			writing.set(false);
+			for (Future<?> reader : readers) {
+				reader.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			threads.shutdownNow();
+		}
+
+		assertThat(violations).isEmpty();
+		TaskProgressDto snapshot = progress.snapshot();
+		assertThat(snapshot.getDone() + snapshot.getFailed() + snapshot.getSkipped()).isEqualTo(20_000);
+	}
+}
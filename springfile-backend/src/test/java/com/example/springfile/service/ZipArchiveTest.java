@@ -0,0 +1,94 @@
+package com.example.springfile.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ZipArchiveTest {
+
+	@TempDir
+	Path tempDir;
+
+	private FileService fileService;
+
+	@BeforeEach
+	void setUp() {
+		FileStorageService fileStorageService = mock(FileStorageService.class);
+		when(fileStorageService.loadFileAsResource(anyString()))
+				.thenAnswer(invocation -> new FileSystemResource(tempDir.resolve(invocation.<String>getArgument(0))));
+		fileService = new FileService(null, null, null, fileStorageService, null, null, null, null, null,
+				mock(PlatformTransactionManager.class), null, null, null, null, null);
+	}
+
+	@Test
+	void duplicateNamesGetNumberedEntries() throws IOException {
+		List<FileService.ZipEntrySource> entries = List.of(
+				entry(1, "report.pdf", "one"),
+				entry(2, "report.pdf", "two"),
+				entry(3, "report (1).pdf", "three"),
+				entry(4, "notes", "four"),
+				entry(5, "notes", "five"));
+
+		Map<String, String> archive = writeAndRead(entries);
+
+		assertThat(archive).containsExactly(
+				Map.entry("report.pdf", "one"),
+				Map.entry("report (1).pdf", "two"),
+				Map.entry("report (1) (1).pdf", "three"),
+				Map.entry("notes", "four"),
+				Map.entry("notes (1)", "five"));
+	}
+
+	@Test
+	void sameFileRequestedTwiceIsWrittenTwice() throws IOException {
+		FileService.ZipEntrySource source = entry(1, "a.txt", "content");
+
+		Map<String, String> archive = writeAndRead(List.of(source, source));
+
+		assertThat(archive).containsExactly(Map.entry("a.txt", "content"), Map.entry("a (1).txt", "content"));
+	}
+
+	private FileService.ZipEntrySource entry(long fileId, String fileName, String content) throws IOException {
+		String storageIdentifier = "blob-" + fileId;
+		Files.writeString(tempDir.resolve(storageIdentifier), content);
+		return new FileService.ZipEntrySource(fileId, fileName, storageIdentifier);
+	}
+
+	// Entry name -> content, in archive order
+	private Map<String, String> writeAndRead(List<FileService.ZipEntrySource> entries) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		fileService.writeZipArchive(entries, out);
+
+		Map<String, String> archive = new LinkedHashMap<>();
+		List<String> names = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry zipEntry;
+			while ((zipEntry = zip.getNextEntry()) != null) {
+				names.add(zipEntry.getName());
+				archive.put(zipEntry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		assertThat(names).doesNotHaveDuplicates();
+		return archive;
+	}
+}